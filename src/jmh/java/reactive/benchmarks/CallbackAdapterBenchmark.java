@@ -0,0 +1,64 @@
+package reactive.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import reactive.CallbackAdapter;
+import reactive.Promise;
+import reactive.PromiseImpl;
+
+/**
+ * Creating {@link CallbackAdapter} proxies and resolving promises through them
+ * 
+ * @author george georgovassilis
+ *
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CallbackAdapterBenchmark {
+
+	/**
+	 * A legacy style callback interface
+	 */
+	public interface ResultCallback {
+		void onResult(Integer value);
+
+		void onError(Exception error);
+	}
+
+	final Integer value = 1;
+
+	@Benchmark
+	public ResultCallback create() {
+		return CallbackAdapter.callback(ResultCallback.class,
+				new PromiseImpl<Integer>());
+	}
+
+	@Benchmark
+	public Integer createAndSet() {
+		Promise<Integer> promise = new PromiseImpl<Integer>();
+		CallbackAdapter.callback(ResultCallback.class, promise).onResult(value);
+		return promise.get();
+	}
+
+	@Benchmark
+	public Exception createAndFail() {
+		Promise<Integer> promise = new PromiseImpl<Integer>();
+		CallbackAdapter.callback(ResultCallback.class, promise).onError(
+				new Exception());
+		return promise.getError();
+	}
+}
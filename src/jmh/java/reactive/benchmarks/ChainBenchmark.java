@@ -0,0 +1,88 @@
+package reactive.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import reactive.Promise;
+import reactive.PromiseImpl;
+
+/**
+ * Builds invokeWhenAvailable chains of different depths and resolves them,
+ * with each kind of function pointer, with and without trampolined resolution
+ * 
+ * @author george georgovassilis
+ *
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ChainBenchmark {
+
+	@Param({ "1", "10", "100", "1000" })
+	int depth;
+
+	@Param({ "false", "true" })
+	boolean trampolining;
+
+	final Increments.Reflective reflective = new Increments.Reflective();
+	final Increments.Lambda lambda = new Increments.Lambda();
+	final Increments.Generated generated = new Increments.Generated();
+
+	boolean previous;
+
+	@Setup
+	public void setup() {
+		previous = PromiseImpl.isTrampolining();
+		PromiseImpl.setTrampolining(trampolining);
+	}
+
+	@TearDown
+	public void tearDown() {
+		PromiseImpl.setTrampolining(previous);
+	}
+
+	@Benchmark
+	public Integer functionPointerImpl() {
+		Promise<Integer> first = new PromiseImpl<Integer>();
+		Promise<Integer> last = first;
+		for (int i = 0; i < depth; i++)
+			last = last.invokeWhenAvailable(reflective.increment(last));
+		first.set(0);
+		return last.get();
+	}
+
+	@Benchmark
+	public Integer functionPointers() {
+		Promise<Integer> first = new PromiseImpl<Integer>();
+		Promise<Integer> last = first;
+		for (int i = 0; i < depth; i++)
+			last = last.invokeWhenAvailable(lambda.increment(last));
+		first.set(0);
+		return last.get();
+	}
+
+	@Benchmark
+	public Integer generatedPointers() {
+		Promise<Integer> first = new PromiseImpl<Integer>();
+		Promise<Integer> last = first;
+		for (int i = 0; i < depth; i++)
+			last = last.invokeWhenAvailable(generated.increment(last));
+		first.set(0);
+		return last.get();
+	}
+}
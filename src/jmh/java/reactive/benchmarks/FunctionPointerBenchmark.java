@@ -0,0 +1,113 @@
+package reactive.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import reactive.FunctionPointer;
+import reactive.FunctionPointerImpl;
+import reactive.Promise;
+import reactive.PromiseImpl;
+
+/**
+ * Constructing and invoking function pointers. Construction uses a pending
+ * argument, so the method only returns its pointer; the invoked pointers have
+ * a resolved argument, so each invocation also resolves the pointer it
+ * returns. {@link #dispatchFunctionPointerImpl()} invokes a method which
+ * returns a pointer it built before, which leaves the cost of calling the
+ * method.
+ * 
+ * @author george georgovassilis
+ *
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FunctionPointerBenchmark {
+
+	/**
+	 * Returns the same pointer once its argument is available
+	 */
+	public static class Dispatch {
+
+		FunctionPointer<Integer> result;
+
+		protected FunctionPointer<Integer> same(Promise<Integer> number) {
+			if (number.isAvailable())
+				return result;
+			return new FunctionPointerImpl<Integer>(this, number);
+		}
+	}
+
+	final Increments.Reflective reflective = new Increments.Reflective();
+	final Increments.Lambda lambda = new Increments.Lambda();
+	final Increments.Generated generated = new Increments.Generated();
+	final Dispatch dispatch = new Dispatch();
+
+	Promise<Integer> pending;
+	FunctionPointer<Integer> reflectivePointer;
+	FunctionPointer<Integer> lambdaPointer;
+	FunctionPointer<Integer> generatedPointer;
+	FunctionPointer<Integer> dispatchPointer;
+
+	@Setup
+	public void setup() {
+		pending = new PromiseImpl<Integer>();
+		Promise<Integer> resolved = new PromiseImpl<Integer>();
+		resolved.set(1);
+		reflectivePointer = reflective.increment(resolved);
+		lambdaPointer = lambda.increment(resolved);
+		generatedPointer = generated.increment(resolved);
+		dispatch.result = dispatch.same(pending);
+		Promise<Integer> argument = new PromiseImpl<Integer>();
+		dispatchPointer = dispatch.same(argument);
+		argument.set(1);
+	}
+
+	@Benchmark
+	public FunctionPointer<Integer> constructFunctionPointerImpl() {
+		return reflective.increment(pending);
+	}
+
+	@Benchmark
+	public FunctionPointer<Integer> constructFunctionPointers() {
+		return lambda.increment(pending);
+	}
+
+	@Benchmark
+	public FunctionPointer<Integer> constructGeneratedPointer() {
+		return generated.increment(pending);
+	}
+
+	@Benchmark
+	public Object invokeFunctionPointerImpl() {
+		return reflectivePointer.invoke();
+	}
+
+	@Benchmark
+	public Object dispatchFunctionPointerImpl() {
+		return dispatchPointer.invoke();
+	}
+
+	@Benchmark
+	public Object invokeFunctionPointers() {
+		return lambdaPointer.invoke();
+	}
+
+	@Benchmark
+	public Object invokeGeneratedPointer() {
+		return generatedPointer.invoke();
+	}
+}
@@ -0,0 +1,61 @@
+package reactive.benchmarks;
+
+import reactive.FunctionPointer;
+import reactive.FunctionPointerImpl;
+import reactive.FunctionPointers;
+import reactive.Promise;
+import reactive.annotations.GeneratePointer;
+
+/**
+ * The same link of a chain built with each kind of function pointer. Each
+ * variant lives in its own class because methods with the same signature
+ * would make FunctionPointerImpl look at the stack on every construction.
+ * 
+ * @author george georgovassilis
+ *
+ */
+public class Increments {
+
+	/**
+	 * Pointers which find their method by looking at the stack
+	 */
+	public static class Reflective {
+
+		protected FunctionPointer<Integer> increment(Promise<Integer> number) {
+			FunctionPointerImpl<Integer> fp = new FunctionPointerImpl<Integer>(
+					this, number);
+			if (number.isAvailable())
+				fp.set(number.get() + 1);
+			return fp;
+		}
+	}
+
+	/**
+	 * Pointers built from method references
+	 */
+	public static class Lambda {
+
+		protected FunctionPointer<Integer> increment(Promise<Integer> number) {
+			FunctionPointer<Integer> fp = FunctionPointers.of(this::increment,
+					number);
+			if (number.isAvailable())
+				fp.set(number.get() + 1);
+			return fp;
+		}
+	}
+
+	/**
+	 * Pointers generated at build time
+	 */
+	public static class Generated {
+
+		@GeneratePointer
+		FunctionPointer<Integer> increment(Promise<Integer> number) {
+			FunctionPointer<Integer> fp = IncrementsGeneratedPointers
+					.increment(this, number);
+			if (number.isAvailable())
+				fp.set(number.get() + 1);
+			return fp;
+		}
+	}
+}
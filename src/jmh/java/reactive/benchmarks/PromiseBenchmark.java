@@ -0,0 +1,133 @@
+package reactive.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import reactive.Callback;
+import reactive.Promise;
+import reactive.PromiseImpl;
+import reactive.Promises;
+
+/**
+ * {@link PromiseImpl} set, whenAvailable and get, on a single thread and with
+ * threads registering callbacks on a promise while another one resolves it
+ * 
+ * @author george georgovassilis
+ *
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PromiseBenchmark {
+
+	/**
+	 * Callback which hands values to the blackhole
+	 */
+	static class Sink implements Callback<Integer> {
+
+		final Blackhole blackhole;
+
+		Sink(Blackhole blackhole) {
+			this.blackhole = blackhole;
+		}
+
+		@Override
+		public void set(Integer value) {
+			blackhole.consume(value);
+		}
+
+		@Override
+		public void fail(Exception e) {
+			blackhole.consume(e);
+		}
+	}
+
+	/**
+	 * The promise which the threads of a group currently work on
+	 */
+	@State(Scope.Group)
+	public static class Shared {
+		final AtomicReference<PromiseImpl<Integer>> current = new AtomicReference<PromiseImpl<Integer>>(
+				new PromiseImpl<Integer>());
+	}
+
+	Sink sink;
+	Callback<Boolean> booleanSink;
+	Promise<Integer> resolved;
+
+	@Setup
+	public void setup(final Blackhole blackhole) {
+		sink = new Sink(blackhole);
+		booleanSink = new Callback<Boolean>() {
+
+			@Override
+			public void set(Boolean value) {
+				blackhole.consume(value);
+			}
+
+			@Override
+			public void fail(Exception e) {
+				blackhole.consume(e);
+			}
+		};
+		resolved = new PromiseImpl<Integer>();
+		resolved.set(1);
+	}
+
+	@Benchmark
+	public Integer setThenGet() {
+		Promise<Integer> promise = new PromiseImpl<Integer>();
+		promise.set(1);
+		return promise.get();
+	}
+
+	@Benchmark
+	public Integer whenAvailableThenSet() {
+		Promise<Integer> promise = new PromiseImpl<Integer>();
+		promise.whenAvailable(sink);
+		promise.set(1);
+		return promise.get();
+	}
+
+	@Benchmark
+	public void whenAvailableOnResolved() {
+		resolved.whenAvailable(sink);
+	}
+
+	@Benchmark
+	public void whenAvailableOnPreResolved() {
+		Promises.resolved(Boolean.TRUE).whenAvailable(booleanSink);
+	}
+
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(1)
+	public void contendedSet(Shared shared) {
+		shared.current.getAndSet(new PromiseImpl<Integer>()).set(1);
+	}
+
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(3)
+	public void contendedWhenAvailable(Shared shared, Blackhole blackhole) {
+		// every registration needs its own callback
+		shared.current.get().whenAvailable(new Sink(blackhole));
+	}
+}
@@ -0,0 +1,82 @@
+package reactive;
+
+import java.lang.reflect.Method;
+
+import reactive.exceptions.FunctionPointerException;
+
+/**
+ * Base class for function pointers which know how to invoke their method
+ * without reflection, i.e. the ones generated for methods annotated with
+ * {@link reactive.annotations.GeneratePointer}. Subclasses keep the arguments
+ * and implement {@link #invoke()}, which returns a failed promise if the
+ * method throws. The {@link Method} is looked up only if
+ * someone asks for it.
+ * 
+ * @author george georgovassilis
+ *
+ * @param <T>
+ */
+public abstract class AbstractFunctionPointer<T> extends PromiseImpl<T>
+		implements FunctionPointer<T> {
+
+	private final Object target;
+	private final String methodName;
+	private final Class<?>[] parameterTypes;
+	private volatile Method method;
+
+	protected AbstractFunctionPointer(Object target, String methodName,
+			Class<?>... parameterTypes) {
+		super(target.getClass().getName());
+		this.target = target;
+		this.methodName = methodName;
+		this.parameterTypes = parameterTypes;
+	}
+
+	@Override
+	public Object getTarget() {
+		return target;
+	}
+
+	@Override
+	public Method getMethod() {
+		Method m = method;
+		if (m == null) {
+			for (Class<?> c = target.getClass(); c != null && m == null; c = c
+					.getSuperclass()) {
+				try {
+					m = c.getDeclaredMethod(methodName, parameterTypes);
+				} catch (NoSuchMethodException e) {
+				}
+			}
+			if (m == null)
+				throw new FunctionPointerException("Couldn't find method "
+						+ methodName + " on " + target.getClass());
+			method = m;
+		}
+		return m;
+	}
+
+	@Override
+	public abstract Promise<T> invoke();
+
+	/**
+	 * Returns a promise failed with error. Subclasses return it from
+	 * {@link #invoke()} when their method throws, like
+	 * {@link FunctionPointerImpl} does.
+	 * 
+	 * @param error
+	 * @return
+	 */
+	protected Promise<T> failed(Exception error) {
+		PromiseImpl<T> failure = new PromiseImpl<T>("Failed " + this,
+				getExecutor());
+		failure.fail(error);
+		return failure;
+	}
+
+	@Override
+	public String toString() {
+		return target.getClass() + "." + methodName;
+	}
+
+}
@@ -0,0 +1,221 @@
+package reactive;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import reactive.exceptions.PromiseException;
+
+/**
+ * Collects individual key lookups into batches and loads each batch with one
+ * call to a {@link BatchFunction}. {@link #load(Object)} returns a promise per
+ * key right away; the batch is dispatched once it holds maxBatchSize keys,
+ * once maxDelay has passed since its first key, or when {@link #dispatch()} is
+ * called, whichever happens first. Requests for a key which is already in the
+ * pending batch share its promise.
+ *
+ * The delay is measured by a {@link PromiseTimer}, so it is rounded up to the
+ * timer's resolution, and batches dispatched by the delay are handed to the
+ * batch function on the timer thread. With a delay of 0 batches are
+ * dispatched only by size or explicitly.
+ *
+ * @author george georgovassilis
+ *
+ * @param <K>
+ *            key type
+ * @param <V>
+ *            value type
+ */
+public class BatchLoader<K, V> {
+
+	/**
+	 * Loads the values for a batch of keys. The returned promise resolves with
+	 * a map from keys to values; keys missing from the map resolve with null.
+	 * If it fails, all promises of the batch fail.
+	 */
+	public interface BatchFunction<K, V> {
+		Promise<Map<K, V>> load(List<K> keys);
+	}
+
+	/**
+	 * Keys waiting to be loaded together
+	 */
+	private final class Batch implements Runnable, Callback<Map<K, V>> {
+		final Map<K, PromiseImpl<V>> promises = new LinkedHashMap<K, PromiseImpl<V>>();
+		PromiseTimer.Timeout timeout;
+
+		/**
+		 * Runs when the batch's delay has passed
+		 */
+		@Override
+		public void run() {
+			dispatch(this);
+		}
+
+		/**
+		 * Resolves every promise of the batch, even if callbacks of some of
+		 * them throw; the first exception is rethrown at the end.
+		 */
+		@Override
+		public void set(Map<K, V> values) {
+			RuntimeException failure = null;
+			for (Map.Entry<K, PromiseImpl<V>> e : promises.entrySet())
+				try {
+					e.getValue().set(values == null ? null : values.get(e.getKey()));
+				} catch (RuntimeException ex) {
+					if (failure == null)
+						failure = ex;
+				}
+			if (failure != null)
+				throw failure;
+		}
+
+		@Override
+		public void fail(Exception error) {
+			RuntimeException failure = null;
+			for (PromiseImpl<V> promise : promises.values())
+				try {
+					promise.fail(error);
+				} catch (RuntimeException ex) {
+					if (failure == null)
+						failure = ex;
+				}
+			if (failure != null)
+				throw failure;
+		}
+	}
+
+	private final BatchFunction<K, V> function;
+	private final int maxBatchSize;
+	private final long maxDelay;
+	private final TimeUnit unit;
+	private final PromiseTimer timer;
+	private Batch batch = new Batch();
+	private long batches;
+
+	/**
+	 * Creates a batch loader
+	 *
+	 * @param function
+	 *            loads batches
+	 * @param maxBatchSize
+	 *            a batch is dispatched as soon as it has this many keys
+	 * @param maxDelay
+	 *            a batch is dispatched after this long, 0 waits for
+	 *            {@link #dispatch()}
+	 * @param unit
+	 * @param timer
+	 *            measures the delay
+	 */
+	public BatchLoader(BatchFunction<K, V> function, int maxBatchSize,
+			long maxDelay, TimeUnit unit, PromiseTimer timer) {
+		if (function == null)
+			throw new PromiseException("Batch function can't be null");
+		if (maxBatchSize <= 0)
+			throw new PromiseException("Batch size must be positive");
+		if (maxDelay < 0)
+			throw new PromiseException("Delay can't be negative");
+		this.function = function;
+		this.maxBatchSize = maxBatchSize;
+		this.maxDelay = maxDelay;
+		this.unit = unit;
+		this.timer = timer;
+	}
+
+	/**
+	 * Creates a batch loader which uses {@link PromiseTimer#getDefault()}
+	 */
+	public BatchLoader(BatchFunction<K, V> function, int maxBatchSize,
+			long maxDelay, TimeUnit unit) {
+		this(function, maxBatchSize, maxDelay, unit,
+				maxDelay > 0 ? PromiseTimer.getDefault() : null);
+	}
+
+	/**
+	 * Returns a promise for the value of key, which will be loaded with the
+	 * next batch
+	 *
+	 * @param key
+	 * @return
+	 */
+	public Promise<V> load(K key) {
+		PromiseImpl<V> promise;
+		Batch full = null;
+		synchronized (this) {
+			promise = batch.promises.get(key);
+			if (promise != null)
+				return promise;
+			promise = new PromiseImpl<V>("BatchLoader.load");
+			batch.promises.put(key, promise);
+			if (batch.promises.size() >= maxBatchSize)
+				full = swap();
+			else if (batch.promises.size() == 1 && maxDelay > 0)
+				batch.timeout = timer.schedule(batch, maxDelay, unit);
+		}
+		if (full != null)
+			load(full);
+		return promise;
+	}
+
+	/**
+	 * Dispatches the pending batch right away
+	 */
+	public void dispatch() {
+		Batch pending;
+		synchronized (this) {
+			if (batch.promises.isEmpty())
+				return;
+			pending = swap();
+		}
+		load(pending);
+	}
+
+	/**
+	 * Number of batches dispatched so far
+	 *
+	 * @return
+	 */
+	public synchronized long getBatchCount() {
+		return batches;
+	}
+
+	private void dispatch(Batch expired) {
+		synchronized (this) {
+			// the batch may have been dispatched by size meanwhile
+			if (batch != expired)
+				return;
+			swap();
+		}
+		load(expired);
+	}
+
+	/**
+	 * Replaces the pending batch with an empty one and returns it. Must be
+	 * called while holding the lock.
+	 */
+	private Batch swap() {
+		Batch pending = batch;
+		batch = new Batch();
+		batches++;
+		if (pending.timeout != null)
+			pending.timeout.cancel();
+		return pending;
+	}
+
+	private void load(Batch pending) {
+		Promise<Map<K, V>> values;
+		try {
+			values = function.load(new ArrayList<K>(pending.promises.keySet()));
+		} catch (RuntimeException e) {
+			pending.fail(e);
+			return;
+		}
+		if (values == null) {
+			pending.fail(new PromiseException("Batch function returned null"));
+			return;
+		}
+		values.whenAvailable(pending, PromiseImpl.INLINE);
+	}
+}
@@ -3,7 +3,10 @@ package reactive;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
 
+import reactive.annotations.Failure;
 import reactive.exceptions.CallbackAdapterException;
 
 /**
@@ -11,46 +14,138 @@ import reactive.exceptions.CallbackAdapterException;
  * construct dynamic proxies which implement callback interfaces. When methods
  * on those callback interfaces are called, it will resolve the promises with
  * those methods' arguments.
- * 
+ *
+ * Which interface method does what is worked out once per callback interface
+ * and kept in a dispatch table: single argument methods which accept a
+ * {@link Throwable} or are annotated with {@link Failure} fail the promise,
+ * other single argument methods set it.
+ *
  * @author george georgovassilis
  *
  */
 public class CallbackAdapter {
 
-	protected static void invokeSetter(Promise<?> promise, Object value) {
-		Method[] methods = promise.getClass().getMethods();
-		for (Method m : methods) {
-			Class<?>[] argTypes = m.getParameterTypes();
-			if (argTypes.length == 1) {
-				if (value == null
-						|| argTypes[0].isAssignableFrom(value.getClass())) {
-					ReflectionUtils.invoke(m, promise, value);
-					return;
-				}
-			}
+	protected enum Action {
+		SET, FAIL, EQUALS, HASHCODE, TOSTRING, UNSUPPORTED
+	}
+
+	private final static ClassValue<Map<Method, Action>> dispatchTables = new ClassValue<Map<Method, Action>>() {
+		@Override
+		protected Map<Method, Action> computeValue(Class<?> callbackClass) {
+			Map<Method, Action> table = new HashMap<Method, Action>();
+			for (Method m : callbackClass.getMethods())
+				table.put(m, actionFor(m));
+			for (Method m : Object.class.getMethods())
+				table.put(m, actionFor(m));
+			return table;
 		}
-		throw new CallbackAdapterException("Didn't find setter on promise");
+	};
+
+	/**
+	 * Decides whether a single argument callback method fails the promise
+	 * rather than setting it. Adapters generated for
+	 * {@link reactive.annotations.GenerateAdapter} follow the same rule.
+	 *
+	 * @param annotated
+	 *            whether the method is annotated with {@link Failure}
+	 * @param acceptsThrowable
+	 *            whether the argument is a {@link Throwable}
+	 * @return
+	 */
+	public static boolean isFailure(boolean annotated, boolean acceptsThrowable) {
+		return annotated || acceptsThrowable;
+	}
+
+	protected static Action actionFor(Method m) {
+		Class<?>[] argTypes = m.getParameterTypes();
+		if (m.getDeclaringClass() == Object.class) {
+			if ("equals".equals(m.getName()) && argTypes.length == 1)
+				return Action.EQUALS;
+			if ("hashCode".equals(m.getName()) && argTypes.length == 0)
+				return Action.HASHCODE;
+			if ("toString".equals(m.getName()) && argTypes.length == 0)
+				return Action.TOSTRING;
+			return Action.UNSUPPORTED;
+		}
+		if (argTypes.length != 1)
+			return Action.UNSUPPORTED;
+		if (isFailure(m.isAnnotationPresent(Failure.class),
+				Throwable.class.isAssignableFrom(argTypes[0])))
+			return Action.FAIL;
+		return Action.SET;
+	}
+
+	/**
+	 * Returns the dispatch table for callbackClass
+	 *
+	 * @param callbackClass
+	 * @return
+	 */
+	protected static Map<Method, Action> getDispatchTable(
+			Class<?> callbackClass) {
+		return dispatchTables.get(callbackClass);
+	}
+
+	/**
+	 * Turns the argument of a failing callback method into an exception
+	 *
+	 * @param error
+	 * @return
+	 */
+	public static Exception toException(Object error) {
+		if (error instanceof Exception)
+			return (Exception) error;
+		if (error instanceof Throwable)
+			return new CallbackAdapterException((Throwable) error);
+		return new CallbackAdapterException(String.valueOf(error));
 	}
 
-	protected static Object handleBaseMethods(Method m, Object[] args,
-			Object proxy) {
-		if ("equals".equals(m.getName()) && (args != null && args.length == 1)) {
-			return proxy == args[0];
+	/**
+	 * Resolves a promise according to a dispatch table
+	 */
+	protected static class Handler implements InvocationHandler {
+
+		private final Map<Method, Action> table;
+		private final Promise<Object> promise;
+
+		@SuppressWarnings("unchecked")
+		protected Handler(Map<Method, Action> table, Promise<?> promise) {
+			this.table = table;
+			this.promise = (Promise<Object>) promise;
 		}
-		if ("hashcode".equals(m.getName())
-				&& (args == null || args.length == 0)) {
-			return System.identityHashCode(proxy);
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args)
+				throws Throwable {
+			Action action = table.get(method);
+			if (action == null)
+				action = Action.UNSUPPORTED;
+			switch (action) {
+			case SET:
+				promise.set(args[0]);
+				return null;
+			case FAIL:
+				promise.fail(toException(args[0]));
+				return null;
+			case EQUALS:
+				return proxy == args[0];
+			case HASHCODE:
+				return System.identityHashCode(proxy);
+			case TOSTRING:
+				return "Callback for " + promise;
+			default:
+				throw new CallbackAdapterException(
+						"Don't know what to do with " + method);
+			}
 		}
-		throw new CallbackAdapterException("Don't know what to do with method "
-				+ m);
 	}
 
 	/**
 	 * Constructs a dynamic proxy which implements callbackClass. The proxy will
-	 * look for a method on the callback class which gets a single argument and
-	 * will intercept that method When the method is called, the proxy will
-	 * resolve the provided promise with that value.
-	 * 
+	 * intercept methods on the callback class which get a single argument.
+	 * When such a method is called, the proxy will resolve the provided promise
+	 * with that value, or fail it if the method reports an error.
+	 *
 	 * @param callbackClass
 	 * @param promise
 	 * @return
@@ -60,20 +155,7 @@ public class CallbackAdapter {
 			final Promise<?> promise) {
 		return (T) Proxy.newProxyInstance(
 				CallbackAdapter.class.getClassLoader(),
-				new Class[] { callbackClass }, new InvocationHandler() {
-
-					@Override
-					public Object invoke(Object proxy, Method method,
-							Object[] args) throws Throwable {
-						Class<?>[] arguments = method.getParameterTypes();
-						if (arguments.length == 1 && args.length == 1) {
-							invokeSetter(promise, args[0]);
-							return null;
-						}
-						handleBaseMethods(method, args, proxy);
-						throw new CallbackAdapterException(
-								"Don't know what to do with " + method);
-					}
-				});
+				new Class[] { callbackClass }, new Handler(
+						getDispatchTable(callbackClass), promise));
 	}
 }
@@ -0,0 +1,177 @@
+package reactive;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiConsumer;
+
+import reactive.exceptions.PromiseCancelledException;
+import reactive.exceptions.PromiseException;
+
+/**
+ * Bridges between promises and {@link CompletionStage}s. Values, failures and
+ * cancellation travel in both directions. Completion is passed on by the
+ * thread which completes the source, without an executor in between.
+ *
+ * Converting an already completed source doesn't register anything with it,
+ * and converting a converted object back returns the original.
+ *
+ * @author george georgovassilis
+ *
+ */
+public class CompletionStages {
+
+	/**
+	 * Future which completes with a promise. It is registered with the promise
+	 * as callback, and cancelling it cancels the promise unless something else
+	 * still waits for it.
+	 */
+	private final static class PromiseFuture<T> extends CompletableFuture<T>
+			implements Callback<T> {
+
+		final Promise<T> promise;
+
+		PromiseFuture(Promise<T> promise) {
+			this.promise = promise;
+		}
+
+		@Override
+		public void set(T value) {
+			complete(value);
+		}
+
+		@Override
+		public void fail(Exception e) {
+			if (e instanceof PromiseCancelledException)
+				super.cancel(false);
+			else
+				completeExceptionally(e);
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean cancelled = super.cancel(mayInterruptIfRunning);
+			if (cancelled) {
+				List<Promise<?>> upstream = new ArrayList<Promise<?>>(1);
+				PromiseImpl.release(promise, this, upstream);
+				if (!upstream.isEmpty())
+					promise.cancel();
+			}
+			return cancelled;
+		}
+	}
+
+	/**
+	 * Promise which resolves with a completion stage. Cancelling it cancels the
+	 * stage.
+	 */
+	private final static class StagePromise<T> extends PromiseImpl<T> implements
+			BiConsumer<T, Throwable> {
+
+		final CompletionStage<T> stage;
+
+		StagePromise(CompletionStage<T> stage) {
+			super("CompletionStages.toPromise");
+			this.stage = stage;
+		}
+
+		@Override
+		public void accept(T value, Throwable error) {
+			if (error == null)
+				set(value);
+			else if (unwrap(error) instanceof CancellationException)
+				cancel();
+			else
+				fail(toException(error));
+		}
+
+		@Override
+		protected void releaseUpstream(Collection<Promise<?>> upstream) {
+			try {
+				stage.toCompletableFuture().cancel(false);
+			} catch (UnsupportedOperationException e) {
+				// the stage can't be cancelled from the outside
+			}
+		}
+	}
+
+	protected static Throwable unwrap(Throwable error) {
+		if ((error instanceof CompletionException || error instanceof ExecutionException)
+				&& error.getCause() != null)
+			return error.getCause();
+		return error;
+	}
+
+	protected static Exception toException(Throwable error) {
+		error = unwrap(error);
+		if (error instanceof Exception)
+			return (Exception) error;
+		return new PromiseException(error);
+	}
+
+	/**
+	 * Returns a future which completes like promise. Cancelling the future
+	 * cancels the promise, unless other callbacks wait for it, and vice versa.
+	 *
+	 * @param promise
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> CompletableFuture<T> toCompletableFuture(
+			Promise<T> promise) {
+		if (promise instanceof StagePromise)
+			return ((StagePromise<T>) promise).stage.toCompletableFuture();
+		PromiseFuture<T> future = new PromiseFuture<T>(promise);
+		if (promise.isAvailable())
+			complete(promise, future);
+		else
+			promise.whenAvailable(future, PromiseImpl.INLINE);
+		return future;
+	}
+
+	private static <T> void complete(Promise<T> promise, PromiseFuture<T> future) {
+		if (promise.isCancelled())
+			future.fail(promise.getError());
+		else if (promise.getError() != null)
+			future.completeExceptionally(promise.getError());
+		else
+			future.complete(promise.get());
+	}
+
+	/**
+	 * Returns a promise which resolves like stage. Cancelling the promise
+	 * cancels the stage, and a cancelled stage cancels the promise. Stages
+	 * which have already completed with a value or an error are returned as
+	 * immutable promises.
+	 *
+	 * @param stage
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> Promise<T> toPromise(CompletionStage<T> stage) {
+		if (stage instanceof PromiseFuture)
+			return ((PromiseFuture<T>) stage).promise;
+		if (stage instanceof CompletableFuture
+				&& ((CompletableFuture<T>) stage).isDone()) {
+			CompletableFuture<T> future = (CompletableFuture<T>) stage;
+			try {
+				return Promises.resolved(future.getNow(null));
+			} catch (CancellationException e) {
+				// immutable promises can't be cancelled
+				StagePromise<T> promise = new StagePromise<T>(stage);
+				promise.accept(null, e);
+				return promise;
+			} catch (CompletionException e) {
+				return Promises.failed(toException(e));
+			}
+		}
+		StagePromise<T> promise = new StagePromise<T>(stage);
+		stage.whenComplete(promise);
+		return promise;
+	}
+}
@@ -1,7 +1,19 @@
 package reactive;
 
+import java.lang.StackWalker.StackFrame;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
 
 import reactive.exceptions.FunctionPointerException;
 
@@ -9,7 +21,17 @@ import reactive.exceptions.FunctionPointerException;
  * Keeps a reference to a method and its arguments so that it can be invoked at
  * a later point. Does so by examining the current stack trace and making a note
  * of the calling method's name. The method is a little brittle and should
- * probably be improved.
+ * probably be improved. Resolved methods are cached per call site, so the
+ * reflection cost is paid once; when the target class has just one method
+ * which fits the arguments, later constructions don't look at the stack at
+ * all. They therefore don't check that they are made from within that method
+ * anymore: once it has been resolved, a pointer constructed anywhere else with
+ * the same target class and argument types binds to it rather than failing
+ * with a {@link FunctionPointerException}. Methods are invoked through a class spun by {@link LambdaMetafactory}
+ * per method, which calls it directly so that the JIT can inline it; methods
+ * it can't handle are invoked reflectively. Exceptions thrown by the method
+ * fail the promise returned by {@link #invoke()}, and
+ * invocations are timed if {@link PromiseMetrics} are installed.
  * 
  * Instances of this class are not thread safe and concurrent access must be
  * synchronized manually.
@@ -21,44 +43,285 @@ public class FunctionPointerImpl<T> extends PromiseImpl<T> implements
 		FunctionPointer<T> {
 
 	private Object target;
-	private Method method;
+	private Invoker invoker;
 	private Object[] arguments;
 
+	/**
+	 * How many frames from the top of the stack are examined for the calling
+	 * method
+	 */
+	protected final static int MAX_CALLER_FRAMES = 32;
+
+	/**
+	 * Resolution result for signatures which more than one method matches
+	 */
+	private final static Object AMBIGUOUS = new Object();
+
+	/**
+	 * Resolution result for call sites which don't match any method
+	 */
+	private final static Object NOT_FOUND = new Object();
+
+	/**
+	 * Identifies a call site by target class, caller method name and
+	 * argument types. A null method name identifies all methods of the
+	 * target class which accept the argument types.
+	 */
+	private final static class CallSite {
+		final Class<?> targetClass;
+		final String methodName;
+		final Class<?>[] argumentTypes;
+		final int hash;
+
+		CallSite(Class<?> targetClass, String methodName,
+				Class<?>[] argumentTypes) {
+			this.targetClass = targetClass;
+			this.methodName = methodName;
+			this.argumentTypes = argumentTypes;
+			int h = targetClass.hashCode() * 31
+					+ Arrays.hashCode(argumentTypes);
+			this.hash = methodName == null ? h : h * 31
+					+ methodName.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof CallSite))
+				return false;
+			CallSite other = (CallSite) o;
+			return targetClass == other.targetClass
+					&& (methodName == null ? other.methodName == null
+							: methodName.equals(other.methodName))
+					&& Arrays.equals(argumentTypes, other.argumentTypes);
+		}
+	}
+
+	/**
+	 * Methods with up to this many parameters are invoked through a spun class
+	 */
+	protected final static int MAX_SPUN_ARITY = 4;
+
+	/**
+	 * Interfaces implemented by the spun classes, one per arity. They are
+	 * public only because the classes are spun next to the target class.
+	 */
+	public interface Invoke0 {
+		Object invoke(Object target);
+	}
+
+	public interface Invoke1 {
+		Object invoke(Object target, Object a);
+	}
+
+	public interface Invoke2 {
+		Object invoke(Object target, Object a, Object b);
+	}
+
+	public interface Invoke3 {
+		Object invoke(Object target, Object a, Object b, Object c);
+	}
+
+	public interface Invoke4 {
+		Object invoke(Object target, Object a, Object b, Object c, Object d);
+	}
+
+	private final static Class<?>[] INVOKE = { Invoke0.class, Invoke1.class,
+			Invoke2.class, Invoke3.class, Invoke4.class };
+
+	/**
+	 * A resolved method and the means to invoke it
+	 */
+	protected abstract static class Invoker {
+		final Method method;
+		final int arity;
+
+		Invoker(Method method) {
+			this.method = method;
+			this.arity = method.getParameterCount();
+		}
+
+		abstract Object invoke(Object target, Object[] arguments)
+				throws Throwable;
+
+		void checkArity(Object[] arguments) {
+			if (arguments.length != arity)
+				throw new IllegalArgumentException("Expected " + arity
+						+ " arguments for " + method + " but got "
+						+ arguments.length);
+		}
+
+		/**
+		 * Returns an invoker which calls method through a spun class, or
+		 * reflectively if method is static, has too many parameters or
+		 * can't be accessed that way
+		 */
+		static Invoker of(Method method) {
+			if (method.getParameterCount() <= MAX_SPUN_ARITY
+					&& !Modifier.isStatic(method.getModifiers()))
+				try {
+					return spin(method);
+				} catch (Throwable e) {
+					// e.g. the target module doesn't open its package
+				}
+			return new Invoker(method) {
+
+				@Override
+				Object invoke(Object target, Object[] arguments)
+						throws Throwable {
+					try {
+						return method.invoke(target, arguments);
+					} catch (InvocationTargetException e) {
+						throw e.getCause();
+					}
+				}
+			};
+		}
+
+		private static Invoker spin(Method method) throws Throwable {
+			Lookup lookup = MethodHandles.privateLookupIn(
+					method.getDeclaringClass(), MethodHandles.lookup());
+			MethodHandle impl = lookup.unreflect(method).asFixedArity();
+			int arity = method.getParameterCount();
+			Object function = LambdaMetafactory
+					.metafactory(lookup, "invoke",
+							MethodType.methodType(INVOKE[arity]),
+							MethodType.genericMethodType(arity + 1), impl,
+							impl.type().wrap()).getTarget().invoke();
+			switch (arity) {
+			case 0:
+				final Invoke0 f0 = (Invoke0) function;
+				return new Invoker(method) {
+
+					@Override
+					Object invoke(Object target, Object[] arguments) {
+						checkArity(arguments);
+						return f0.invoke(target);
+					}
+				};
+			case 1:
+				final Invoke1 f1 = (Invoke1) function;
+				return new Invoker(method) {
+
+					@Override
+					Object invoke(Object target, Object[] arguments) {
+						checkArity(arguments);
+						return f1.invoke(target, arguments[0]);
+					}
+				};
+			case 2:
+				final Invoke2 f2 = (Invoke2) function;
+				return new Invoker(method) {
+
+					@Override
+					Object invoke(Object target, Object[] arguments) {
+						checkArity(arguments);
+						return f2.invoke(target, arguments[0], arguments[1]);
+					}
+				};
+			case 3:
+				final Invoke3 f3 = (Invoke3) function;
+				return new Invoker(method) {
+
+					@Override
+					Object invoke(Object target, Object[] arguments) {
+						checkArity(arguments);
+						return f3.invoke(target, arguments[0], arguments[1],
+								arguments[2]);
+					}
+				};
+			default:
+				final Invoke4 f4 = (Invoke4) function;
+				return new Invoker(method) {
+
+					@Override
+					Object invoke(Object target, Object[] arguments) {
+						checkArity(arguments);
+						return f4.invoke(target, arguments[0], arguments[1],
+								arguments[2], arguments[3]);
+					}
+				};
+			}
+		}
+	}
+
+	private final static StackWalker WALKER = StackWalker
+			.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+
+	private final static ConcurrentMap<CallSite, Object> callSites = new ConcurrentHashMap<CallSite, Object>();
+
 	public FunctionPointerImpl(Object target, Object... arguments) {
-		super("Callback on " + target);
-		StackTraceElement[] trace = Thread.currentThread().getStackTrace();
-		Method method = null;
+		super(target.getClass().getName());
 		Class<?> c = target.getClass();
-
-		// walk down the stack until we find a method that a) returns a
-		// FunctionPointer and b) has as parameters all the supplied argument
-		// types
 		Class<?>[] argumentTypes = ReflectionUtils.toTypes(arguments);
-		for (int i = 0; i < trace.length && method == null; i++) {
-			StackTraceElement caller = trace[i];
-			String methodName = caller.getMethodName();
-			Method m = ReflectionUtils.findMethod(c, methodName, Promise.class,
-					argumentTypes);
-			if (m != null)
-				method = m;
-		}
-		if (method == null) {
-			StringBuilder sb = new StringBuilder();
-			sb.append("Couldn't find method in trace: ");
-			for (StackTraceElement e : trace)
-				sb.append(e).append("\n");
-			System.err.println(sb);
+		Invoker invoker = resolve(c, argumentTypes);
+		if (invoker == null)
 			throw new FunctionPointerException(
 					"I couldn't find a method in the current call stack which returns a "
 							+ Promise.class + " and accepts these arguments: "
 							+ Arrays.toString(arguments));
-		}
-		method.setAccessible(true);
 		this.target = target;
-		this.method = method;
+		this.invoker = invoker;
 		this.arguments = arguments;
 	}
 
+	/**
+	 * Finds the method which constructs the function pointer. If c has only
+	 * one method which returns a promise and accepts argumentTypes, and the
+	 * call stack confirmed that once, that method is returned without looking
+	 * at the stack again, even if the caller is a different method. Otherwise the top {@link #MAX_CALLER_FRAMES} frames
+	 * are walked lazily and those of c and its superclasses are matched
+	 * against the methods of c; results are cached per call site.
+	 * 
+	 * @param c
+	 * @param argumentTypes
+	 * @return
+	 */
+	protected static Invoker resolve(Class<?> c, Class<?>[] argumentTypes) {
+		CallSite signature = new CallSite(c, null, argumentTypes);
+		Object unique = callSites.get(signature);
+		if (unique instanceof Invoker)
+			return (Invoker) unique;
+
+		// walk down the stack until we find a method of c that a) returns a
+		// FunctionPointer and b) has as parameters all the supplied argument
+		// types
+		List<StackFrame> frames = WALKER.walk(s -> s.limit(MAX_CALLER_FRAMES)
+				.collect(Collectors.toList()));
+		for (StackFrame frame : frames) {
+			if (!frame.getDeclaringClass().isAssignableFrom(c))
+				continue;
+			String methodName = frame.getMethodName();
+			CallSite site = new CallSite(c, methodName, argumentTypes);
+			Object resolved = callSites.get(site);
+			if (resolved == null) {
+				Method m = ReflectionUtils.findMethod(c, methodName,
+						Promise.class, argumentTypes);
+				if (m != null)
+					m.setAccessible(true);
+				resolved = m == null ? NOT_FOUND : Invoker.of(m);
+				callSites.putIfAbsent(site, resolved);
+			}
+			if (resolved == NOT_FOUND)
+				continue;
+			if (unique == null)
+				callSites.putIfAbsent(signature, ReflectionUtils
+						.findMethodNames(c, Promise.class, argumentTypes)
+						.size() == 1 ? resolved : AMBIGUOUS);
+			return (Invoker) resolved;
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append("Couldn't find method in trace: ");
+		for (StackFrame frame : frames)
+			sb.append(frame).append("\n");
+		System.err.println(sb);
+		return null;
+	}
+
 	@Override
 	public Object getTarget() {
 		return target;
@@ -66,18 +329,35 @@ public class FunctionPointerImpl<T> extends PromiseImpl<T> implements
 
 	@Override
 	public Method getMethod() {
-		return method;
+		return invoker.method;
 	}
 
 	@Override
 	public String toString() {
-		return target.getClass() + "." + method;
+		return target.getClass() + "." + invoker.method;
 	}
 
 	@SuppressWarnings("unchecked")
 	@Override
 	public Promise<T> invoke() {
-		return (Promise<T>) ReflectionUtils.invoke(method, target, arguments);
+		PromiseMetrics metrics = getMetrics();
+		long start = metrics == null ? 0 : System.nanoTime();
+		try {
+			Object result = invoker.invoke(target, arguments);
+			return (Promise<T>) result;
+		} catch (Exception e) {
+			PromiseImpl<T> failure = new PromiseImpl<T>("Failed " + this,
+					getExecutor());
+			failure.fail(e);
+			return failure;
+		} catch (Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new RuntimeException(t);
+		} finally {
+			if (metrics != null)
+				metrics.pointerInvoked(System.nanoTime() - start);
+		}
 	}
 
 }
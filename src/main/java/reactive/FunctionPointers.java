@@ -0,0 +1,202 @@
+package reactive;
+
+import java.lang.reflect.Method;
+
+/**
+ * Factory for function pointers built from lambdas or method references
+ * instead of stack inspection. The programming model is the same as with
+ * {@link FunctionPointerImpl}: a method which waits for promises returns a
+ * pointer to itself with its current arguments, i.e.
+ *
+ * <pre>
+ * protected FunctionPointer&lt;Void&gt; showUser(Promise&lt;User&gt; user, Promise&lt;Boolean&gt; status) {
+ * 	FunctionPointer&lt;Void&gt; fp = FunctionPointers.of(this::showUser, user, status);
+ * 	if (user.isAvailable() &amp;&amp; status.isAvailable()) {
+ * 		...
+ * 	}
+ * 	return fp;
+ * }
+ * </pre>
+ *
+ * There are implementations for one to four arguments which keep the
+ * arguments in fields; invoking the pointer is a plain interface call.
+ * {@link FunctionPointer#getTarget()} returns the function and
+ * {@link FunctionPointer#getMethod()} its functional method.
+ *
+ * @author george georgovassilis
+ *
+ */
+public class FunctionPointers {
+
+	public interface Function1<A, R> {
+		Promise<R> apply(A a);
+	}
+
+	public interface Function2<A, B, R> {
+		Promise<R> apply(A a, B b);
+	}
+
+	public interface Function3<A, B, C, R> {
+		Promise<R> apply(A a, B b, C c);
+	}
+
+	public interface Function4<A, B, C, D, R> {
+		Promise<R> apply(A a, B b, C c, D d);
+	}
+
+	private final static Method[] APPLY = new Method[] {
+			ReflectionUtils.findMethod(Function1.class, "apply",
+					Promise.class, new Class<?>[1]),
+			ReflectionUtils.findMethod(Function2.class, "apply",
+					Promise.class, new Class<?>[2]),
+			ReflectionUtils.findMethod(Function3.class, "apply",
+					Promise.class, new Class<?>[3]),
+			ReflectionUtils.findMethod(Function4.class, "apply",
+					Promise.class, new Class<?>[4]) };
+
+	private final static String NAME = "FunctionPointers.of";
+
+	/**
+	 * Common part of the arity specific pointers
+	 */
+	private static abstract class LambdaPointer<R> extends PromiseImpl<R>
+			implements FunctionPointer<R> {
+
+		private final Object function;
+		private final int arity;
+
+		LambdaPointer(Object function, int arity) {
+			super(NAME);
+			this.function = function;
+			this.arity = arity;
+		}
+
+		@Override
+		public Object getTarget() {
+			return function;
+		}
+
+		@Override
+		public Method getMethod() {
+			return APPLY[arity - 1];
+		}
+
+		/**
+		 * Calls the function. Exceptions fail the returned promise.
+		 */
+		protected abstract Promise<R> apply();
+
+		@Override
+		public Promise<R> invoke() {
+			try {
+				return apply();
+			} catch (RuntimeException e) {
+				PromiseImpl<R> failure = new PromiseImpl<R>("Failed " + this,
+						getExecutor());
+				failure.fail(e);
+				return failure;
+			}
+		}
+
+		@Override
+		public String toString() {
+			return NAME + " " + function;
+		}
+	}
+
+	private final static class Pointer1<A, R> extends LambdaPointer<R> {
+		private final Function1<A, R> function;
+		private final A a;
+
+		Pointer1(Function1<A, R> function, A a) {
+			super(function, 1);
+			this.function = function;
+			this.a = a;
+		}
+
+		@Override
+		protected Promise<R> apply() {
+			return function.apply(a);
+		}
+	}
+
+	private final static class Pointer2<A, B, R> extends LambdaPointer<R> {
+		private final Function2<A, B, R> function;
+		private final A a;
+		private final B b;
+
+		Pointer2(Function2<A, B, R> function, A a, B b) {
+			super(function, 2);
+			this.function = function;
+			this.a = a;
+			this.b = b;
+		}
+
+		@Override
+		protected Promise<R> apply() {
+			return function.apply(a, b);
+		}
+	}
+
+	private final static class Pointer3<A, B, C, R> extends LambdaPointer<R> {
+		private final Function3<A, B, C, R> function;
+		private final A a;
+		private final B b;
+		private final C c;
+
+		Pointer3(Function3<A, B, C, R> function, A a, B b, C c) {
+			super(function, 3);
+			this.function = function;
+			this.a = a;
+			this.b = b;
+			this.c = c;
+		}
+
+		@Override
+		protected Promise<R> apply() {
+			return function.apply(a, b, c);
+		}
+	}
+
+	private final static class Pointer4<A, B, C, D, R> extends
+			LambdaPointer<R> {
+		private final Function4<A, B, C, D, R> function;
+		private final A a;
+		private final B b;
+		private final C c;
+		private final D d;
+
+		Pointer4(Function4<A, B, C, D, R> function, A a, B b, C c, D d) {
+			super(function, 4);
+			this.function = function;
+			this.a = a;
+			this.b = b;
+			this.c = c;
+			this.d = d;
+		}
+
+		@Override
+		protected Promise<R> apply() {
+			return function.apply(a, b, c, d);
+		}
+	}
+
+	public static <A, R> FunctionPointer<R> of(Function1<A, R> function, A a) {
+		return new Pointer1<A, R>(function, a);
+	}
+
+	public static <A, B, R> FunctionPointer<R> of(
+			Function2<A, B, R> function, A a, B b) {
+		return new Pointer2<A, B, R>(function, a, b);
+	}
+
+	public static <A, B, C, R> FunctionPointer<R> of(
+			Function3<A, B, C, R> function, A a, B b, C c) {
+		return new Pointer3<A, B, C, R>(function, a, b, c);
+	}
+
+	public static <A, B, C, D, R> FunctionPointer<R> of(
+			Function4<A, B, C, D, R> function, A a, B b, C c, D d) {
+		return new Pointer4<A, B, C, D, R>(function, a, b, c, d);
+	}
+}
@@ -1,5 +1,8 @@
 package reactive;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
 import reactive.exceptions.PromiseException;
 
 /**
@@ -42,6 +45,22 @@ public interface Promise<T> extends Callback<T>{
 	 */
 	void whenAvailable(Callback<T> callback);
 
+	/**
+	 * Like {@link #whenAvailable(Callback)}, but the callback runs on executor instead of the thread which
+	 * resolves the promise
+	 * @param callback
+	 * @param executor
+	 */
+	void whenAvailable(Callback<T> callback, Executor executor);
+
+	/**
+	 * Unregister a callback which was registered with {@link #whenAvailable(Callback)}. A callback
+	 * which is removed while the promise is being resolved may still be invoked.
+	 * @param callback
+	 * @return true if the callback was found and removed
+	 */
+	boolean removeCallback(Callback<T> callback);
+
 	/**
 	 * Resolve the promise with a failure
 	 * @param e
@@ -50,12 +69,39 @@ public interface Promise<T> extends Callback<T>{
 	void fail(Exception e) throws PromiseException;
 
 	/**
-	 * Register a function pointer as callback. Conventions of {@link #whenAvailable(Callback)} apply
+	 * Cancels the promise if it hasn't been resolved yet. A cancelled promise counts as failed with a
+	 * {@link reactive.exceptions.PromiseCancelledException}, which is what its callbacks receive; later attempts
+	 * to resolve it are ignored. Cancellation travels downstream to promises returned by
+	 * {@link #invokeWhenAvailable(FunctionPointer)} and upstream to the promises feeding this one, which are
+	 * cancelled once nothing else waits for them.
+	 * @return true if this call cancelled the promise
+	 */
+	boolean cancel();
+
+	/**
+	 * Determines whether the promise has been cancelled
+	 * @return
+	 */
+	boolean isCancelled();
+
+	/**
+	 * Register a function pointer as callback. Conventions of {@link #whenAvailable(Callback)} apply.
+	 * If this promise fails, the pointer isn't invoked and the returned promise fails with the same error,
+	 * so failures travel down a chain at once. The returned promise also fails if invoking the pointer throws
+	 * or returns null.
 	 * @param pointer
 	 * @return A promise which will resolve together with "pointer".
 	 */
 	<R> Promise<R> invokeWhenAvailable(FunctionPointer<R> pointer);
 
+	/**
+	 * Like {@link #invokeWhenAvailable(FunctionPointer)}, but the pointer is invoked on executor
+	 * @param pointer
+	 * @param executor
+	 * @return A promise which will resolve together with "pointer".
+	 */
+	<R> Promise<R> invokeWhenAvailable(FunctionPointer<R> pointer, Executor executor);
+
 	/**
 	 * Determines whether the promise has been resolved already. Only then can {@link #get()} be safely invked.
 	 * @return
@@ -63,8 +109,18 @@ public interface Promise<T> extends Callback<T>{
 	boolean isAvailable();
 	
 	/**
-	 * Blocks until either {@link #set(Object)} or {@link #fail(Exception)} is called
+	 * Blocks until either {@link #set(Object)} or {@link #fail(Exception)} is called. An interruption
+	 * doesn't end the wait, but the thread's interrupt status is set again when this method returns.
 	 */
 	void waitForResolution();
+
+	/**
+	 * Blocks until the promise is resolved, the timeout elapses or the thread is interrupted
+	 * @param timeout
+	 * @param unit
+	 * @return true if the promise has been resolved
+	 * @throws InterruptedException
+	 */
+	boolean waitForResolution(long timeout, TimeUnit unit) throws InterruptedException;
 	
 }
\ No newline at end of file
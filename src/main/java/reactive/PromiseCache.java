@@ -0,0 +1,324 @@
+package reactive;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+import reactive.exceptions.PromiseException;
+
+/**
+ * Caches the promises returned by a {@link Loader}. Concurrent lookups of the
+ * same key share one load: the first lookup starts it and everybody gets the
+ * same promise, resolved or not. Failed loads aren't cached. Cancelling a
+ * chain built on a cached promise leaves the promise alone, since the cache
+ * still waits for it; a cached promise which has been cancelled anyway is
+ * loaded again.
+ *
+ * The cache holds at most maxSize keys and evicts the least recently used one
+ * when it grows beyond that. Values expire ttl after they were loaded. With
+ * refresh-ahead, a lookup of a value which is older than refreshAfter but not
+ * yet expired returns the current value right away and reloads it in the
+ * background; the new value replaces it once loaded, and a failed reload
+ * leaves it in place.
+ *
+ * Bookkeeping takes a short lock on the cache; loads run outside of it.
+ *
+ * @author george georgovassilis
+ *
+ * @param <K>
+ *            key type
+ * @param <V>
+ *            value type
+ */
+public class PromiseCache<K, V> {
+
+	/**
+	 * Loads the value for a key
+	 */
+	public interface Loader<K, V> {
+		Promise<V> load(K key);
+	}
+
+	private final static class Cached<V> {
+
+		@SuppressWarnings("rawtypes")
+		private final static AtomicIntegerFieldUpdater<Cached> REFRESHING = AtomicIntegerFieldUpdater
+				.newUpdater(Cached.class, "refreshing");
+
+		volatile Promise<V> promise;
+		// nanoTime when the value was loaded, only valid once promise is
+		// resolved
+		volatile long loaded;
+		volatile int refreshing;
+
+		Cached(Promise<V> promise) {
+			this.promise = promise;
+		}
+	}
+
+	/**
+	 * Promise held by the cache. The cache counts as waiting for it, so
+	 * callers cancelling their chains don't cancel it for everybody else.
+	 */
+	private final static class Shared<V> extends PromiseImpl<V> {
+
+		Shared(String name) {
+			super(name);
+		}
+
+		@Override
+		protected boolean hasCallbacks() {
+			return true;
+		}
+	}
+
+	private final Loader<K, V> loader;
+	private final int maxSize;
+	private final long ttl;
+	private final long refreshAfter;
+	private final Map<K, Cached<V>> entries;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder loads = new LongAdder();
+	private final LongAdder loadFailures = new LongAdder();
+	private final LongAdder loadTime = new LongAdder();
+	private final LongAdder refreshes = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Creates a cache
+	 *
+	 * @param loader
+	 *            loads missing values
+	 * @param maxSize
+	 *            maximum number of keys
+	 * @param ttl
+	 *            values expire this long after they were loaded, 0 means
+	 *            never
+	 * @param refreshAfter
+	 *            values older than this are reloaded in the background, 0
+	 *            disables refresh-ahead
+	 * @param unit
+	 *            unit of ttl and refreshAfter
+	 */
+	public PromiseCache(Loader<K, V> loader, final int maxSize, long ttl,
+			long refreshAfter, TimeUnit unit) {
+		if (loader == null)
+			throw new PromiseException("Loader can't be null");
+		if (maxSize <= 0)
+			throw new PromiseException("Size must be positive");
+		if (ttl < 0 || refreshAfter < 0)
+			throw new PromiseException("Durations can't be negative");
+		this.loader = loader;
+		this.maxSize = maxSize;
+		this.ttl = unit.toNanos(ttl);
+		this.refreshAfter = unit.toNanos(refreshAfter);
+		this.entries = new LinkedHashMap<K, Cached<V>>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, Cached<V>> eldest) {
+				if (size() <= maxSize)
+					return false;
+				evictions.increment();
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Creates a cache without expiry and refresh-ahead
+	 */
+	public PromiseCache(Loader<K, V> loader, int maxSize) {
+		this(loader, maxSize, 0, 0, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Returns a promise for the value of key, loading it if it isn't cached,
+	 * has expired or has been cancelled. The promise is shared with other
+	 * callers, so don't resolve or cancel it.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public Promise<V> get(K key) {
+		long now = System.nanoTime();
+		Cached<V> entry;
+		Shared<V> loading = null;
+		boolean refresh = false;
+		synchronized (this) {
+			entry = entries.get(key);
+			if (entry == null || entry.promise.isCancelled()
+					|| isExpired(entry, now)) {
+				loading = new Shared<V>("PromiseCache.get");
+				if (entry == null) {
+					entry = new Cached<V>(loading);
+					entries.put(key, entry);
+				} else
+					entry.promise = loading;
+			} else
+				refresh = needsRefresh(entry, now)
+						&& Cached.REFRESHING.compareAndSet(entry, 0, 1);
+		}
+		if (loading != null) {
+			misses.increment();
+			load(key, entry, loading, false);
+			return loading;
+		}
+		hits.increment();
+		Promise<V> promise = entry.promise;
+		if (refresh) {
+			refreshes.increment();
+			load(key, entry, new Shared<V>("PromiseCache.refresh"), true);
+		}
+		return promise;
+	}
+
+	private boolean isExpired(Cached<V> entry, long now) {
+		return ttl > 0 && entry.promise.isAvailable() && now - entry.loaded >= ttl;
+	}
+
+	private boolean needsRefresh(Cached<V> entry, long now) {
+		return refreshAfter > 0 && entry.promise.isAvailable()
+				&& now - entry.loaded >= refreshAfter;
+	}
+
+	/**
+	 * Loads key and resolves target with the result. A refresh only replaces
+	 * the entry's promise once the value has been loaded.
+	 */
+	private void load(final K key, final Cached<V> entry,
+			final PromiseImpl<V> target, final boolean refresh) {
+		final long start = System.nanoTime();
+		Promise<V> result;
+		try {
+			result = loader.load(key);
+			if (result == null)
+				throw new PromiseException("Loader returned null for " + key);
+		} catch (RuntimeException e) {
+			loaded(key, entry, target, refresh, start, false);
+			target.fail(e);
+			return;
+		}
+		result.whenAvailable(new Callback<V>() {
+
+			@Override
+			public void set(V value) {
+				// a refreshed value replaces the old one only once resolved,
+				// a new one is stamped before anybody can see it resolved
+				if (refresh) {
+					target.set(value);
+					loaded(key, entry, target, refresh, start, true);
+				} else {
+					loaded(key, entry, target, refresh, start, true);
+					target.set(value);
+				}
+			}
+
+			@Override
+			public void fail(Exception e) {
+				loaded(key, entry, target, refresh, start, false);
+				target.fail(e);
+			}
+		}, PromiseImpl.INLINE);
+	}
+
+	private void loaded(K key, Cached<V> entry, PromiseImpl<V> target,
+			boolean refresh, long start, boolean success) {
+		long end = System.nanoTime();
+		loads.increment();
+		loadTime.add(end - start);
+		if (!success)
+			loadFailures.increment();
+		synchronized (this) {
+			if (refresh) {
+				entry.refreshing = 0;
+				if (success) {
+					entry.loaded = end;
+					entry.promise = target;
+				}
+			} else if (entry.promise == target) {
+				entry.loaded = end;
+				// failed loads aren't cached
+				if (!success || target.isCancelled())
+					entries.remove(key, entry);
+			}
+		}
+	}
+
+	/**
+	 * Removes key from the cache. Loads in flight still resolve their
+	 * promises.
+	 *
+	 * @param key
+	 */
+	public synchronized void invalidate(K key) {
+		entries.remove(key);
+	}
+
+	public synchronized void invalidateAll() {
+		entries.clear();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Number of lookups served from the cache, including ones which joined a
+	 * load in flight
+	 *
+	 * @return
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * Number of lookups which started a load
+	 *
+	 * @return
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * Number of finished loads, including refreshes and failures
+	 *
+	 * @return
+	 */
+	public long getLoadCount() {
+		return loads.sum();
+	}
+
+	public long getLoadFailureCount() {
+		return loadFailures.sum();
+	}
+
+	public long getRefreshCount() {
+		return refreshes.sum();
+	}
+
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Time spent in finished loads, from calling the loader until its promise
+	 * resolved
+	 *
+	 * @param unit
+	 * @return
+	 */
+	public long getTotalLoadTime(TimeUnit unit) {
+		return unit.convert(loadTime.sum(), TimeUnit.NANOSECONDS);
+	}
+}
@@ -1,184 +1,988 @@
 package reactive;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 
 import reactive.exceptions.AlreadyResolvedException;
+import reactive.exceptions.FunctionPointerException;
 import reactive.exceptions.NotResolvedException;
+import reactive.exceptions.PromiseCancelledException;
 import reactive.exceptions.PromiseException;
+import reactive.jfr.CallbackEvent;
+import reactive.jfr.PointerInvocationEvent;
+import reactive.jfr.PromiseResolutionEvent;
 
 /**
  * Holds the future value of an invocation. When someone needs a value of type T
  * that will be available in the future, return a promise of type T. The caller
  * can register a callback via {@link #whenAvailable(Callback)} or
- * {@link #invokeWhenAvailable(FunctionPointerImpl)} which will be invoked once the
- * value is available. We say then that the promise is resolved. This class is
- * not thread safe; concurrent access must be synchronized.
- * 
+ * {@link #invokeWhenAvailable(FunctionPointer)} which will be invoked once the
+ * value is available. We say then that the promise is resolved.
+ *
+ * This class is thread safe and doesn't take locks: the resolution state is
+ * switched with a CAS and callbacks are pushed onto a lock-free stack which
+ * the resolving thread drains after the state has been published. Callbacks
+ * therefore run without any monitor held. Threads blocking in
+ * {@link #waitForResolution()} register themselves like a callback and park
+ * until the resolving thread unparks them. No monitors are involved, so
+ * blocking doesn't pin virtual threads to their carrier.
+ *
+ * Pending promises are kept small since there may be millions of them: one
+ * field holds the value or the error once resolved, a single callback is
+ * stored as it is and only a second one builds the stack, and promises
+ * returned by {@link #invokeWhenAvailable(FunctionPointer)} put together
+ * their name only when asked for it.
+ *
+ * Callbacks run on an {@link Executor}. Unless one is passed to
+ * {@link #whenAvailable(Callback, Executor)}, the promise's executor is used,
+ * which in turn defaults to {@link #getDefaultExecutor()}. Out of the box that
+ * is {@link #INLINE}, i.e. callbacks run on the thread which resolves the
+ * promise.
+ *
+ * Resolution can be trampolined, see {@link #setTrampolining(boolean)}: when
+ * a callback resolves another promise on the same thread, that promise's
+ * callbacks are queued and run by the outermost {@link #set(Object)} or
+ * {@link #fail(Exception)} in a loop instead of recursively. Chains of any
+ * length thus complete with a constant stack depth; by the time the outermost
+ * call returns all queued callbacks have run. A callback which waits for a
+ * promise runs the queued callbacks before it blocks.
+ *
+ * A promise can be cancelled with {@link #cancel()}, which fails it with a
+ * {@link PromiseCancelledException} and releases its callbacks. Subclasses
+ * which know the promises feeding them take part in upstream cancellation by
+ * overriding {@link #releaseUpstream(Collection)}.
+ *
+ * Lifecycle events are reported to the {@link PromiseMetrics} installed with
+ * {@link #setMetrics(PromiseMetrics)}. None are installed by default, which
+ * costs a check of a static field per event. Function pointers aren't
+ * counted. While metrics are installed, new promises hold a creation stamp
+ * in place of their result until they resolve; the stamp doesn't take up
+ * room in promises created without them.
+ * Resolutions, callbacks and function pointer invocations are also recorded
+ * as Flight Recorder events, see the reactive.jfr package; they cost next to
+ * nothing while not recorded.
+ * Chains can be sampled with {@link PromiseTracing} in order to find out what
+ * a stuck promise is waiting for.
+ *
  * In order to let callers know that a value is available, use
  * {@link #set(Object)}.
- * 
+ *
  * @author george georgovassilis
  *
  * @param <T>
  */
 public class PromiseImpl<T> implements Promise<T> {
 
-	protected T value;
-	protected Exception error;
-	protected boolean isSet = false;
-	protected List<Callback<T>> callbacks = new ArrayList<Callback<T>>();
+	protected final static int PENDING = 0;
+	protected final static int COMPLETING = 1;
+	protected final static int CANCELLING = 2;
+	protected final static int RESOLVED = 3;
+	protected final static int FAILED = 4;
+	protected final static int CANCELLED = 5;
+
+	/**
+	 * Runs tasks on the calling thread
+	 */
+	public final static Executor INLINE = new Executor() {
+
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+
+		@Override
+		public String toString() {
+			return "INLINE";
+		}
+	};
+
+	private static volatile Executor defaultExecutor = INLINE;
+
+	/**
+	 * How many of the most recently registered callbacks are compared with a
+	 * new one in order to catch callbacks registered twice
+	 */
+	private final static int MAX_DUPLICATE_CHECK = 8;
+
+	private final static String RETURN_PROMISE = "returnPromise from PromiseImpl.whenAvailable(FP) ";
+
+	private static volatile boolean trampolining;
+
+	private static volatile PromiseMetrics metrics;
+
+	/**
+	 * Held in place of the result of a pending promise whose creation metrics
+	 * counted, so that its resolution is reported to the same metrics
+	 */
+	private final static class Stamp {
+		final PromiseMetrics metrics;
+		final long created = System.nanoTime();
+
+		Stamp(PromiseMetrics metrics) {
+			this.metrics = metrics;
+		}
+
+		void report(int outcome) {
+			long nanos = System.nanoTime() - created;
+			if (outcome == RESOLVED)
+				metrics.resolved(nanos);
+			else if (outcome == FAILED)
+				metrics.failed(nanos);
+			else
+				metrics.cancelled(nanos);
+		}
+	}
+
+	/**
+	 * Promises which have been resolved by a callback on the current thread
+	 * and are waiting for the outermost resolution to run their callbacks
+	 */
+	private final static class Trampoline {
+		boolean running;
+		final ArrayDeque<PromiseImpl<?>> pending = new ArrayDeque<PromiseImpl<?>>();
+		// the first exception a callback threw, rethrown by the outermost
+		// resolution
+		RuntimeException failure;
+
+		/**
+		 * Runs the callbacks of the queued promises. Keeps going after a
+		 * callback threw so that no resolved promise is left with callbacks
+		 * that never run.
+		 */
+		void drain() {
+			PromiseImpl<?> next;
+			while ((next = pending.poll()) != null)
+				try {
+					next.complete();
+				} catch (RuntimeException e) {
+					if (failure == null)
+						failure = e;
+				}
+		}
+	}
+
+	private final static ThreadLocal<Trampoline> TRAMPOLINE = new ThreadLocal<Trampoline>() {
+		@Override
+		protected Trampoline initialValue() {
+			return new Trampoline();
+		}
+	};
+
+	/**
+	 * Element of the callback stack. Nodes are never relinked once they've been
+	 * pushed, except for skipping nodes whose callback has been removed.
+	 */
+	private final static class Node<T> {
+		volatile Callback<T> callback;
+		final Executor executor;
+		volatile Node<T> next;
+
+		Node(Callback<T> callback, Executor executor, Node<T> next) {
+			this.callback = callback;
+			this.executor = executor;
+			this.next = next;
+		}
+	}
+
+	/**
+	 * Marks a callback stack which has been drained by the resolving thread.
+	 * Callbacks registered afterwards are invoked directly.
+	 */
+	@SuppressWarnings("rawtypes")
+	private final static Node DRAINED = new Node<Object>(null, null, null);
+
+	/**
+	 * A thread blocking in {@link #waitForResolution()}. It is registered as a
+	 * callback which runs inline, so it is woken up once the callbacks
+	 * registered before it have run. A waiter which gives up clears its thread
+	 * and removes itself.
+	 */
+	private final static class Waiter implements Callback<Object> {
+		volatile Thread thread;
+
+		Waiter(Thread thread) {
+			this.thread = thread;
+		}
+
+		void release() {
+			Thread thread = this.thread;
+			if (thread != null) {
+				this.thread = null;
+				LockSupport.unpark(thread);
+			}
+		}
+
+		@Override
+		public void set(Object value) {
+			release();
+		}
+
+		@Override
+		public void fail(Exception error) {
+			release();
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private final static AtomicIntegerFieldUpdater<PromiseImpl> STATE = AtomicIntegerFieldUpdater
+			.newUpdater(PromiseImpl.class, "state");
+
+	@SuppressWarnings("rawtypes")
+	private final static AtomicReferenceFieldUpdater<Node, Callback> NODE_CALLBACK = AtomicReferenceFieldUpdater
+			.newUpdater(Node.class, Callback.class, "callback");
+
+	@SuppressWarnings("rawtypes")
+	private final static AtomicReferenceFieldUpdater<PromiseImpl, Object> CALLBACKS = AtomicReferenceFieldUpdater
+			.newUpdater(PromiseImpl.class, Object.class, "callbacks");
+
+	/**
+	 * Promise returned by {@link #invokeWhenAvailable(FunctionPointer)}. It
+	 * knows the promise it was chained to and the promise the function pointer
+	 * returned, so cancelling it cancels them too unless something else waits
+	 * for them.
+	 */
+	private final static class ReturnPromise<S, R> extends PromiseImpl<R> {
+
+		final Promise<S> source;
+		Callback<S> link;
+		volatile Promise<R> result;
+		// null unless this link is traced
+		PromiseTracing.Trace trace;
+
+		/**
+		 * @param name
+		 *            name of the head of the chain
+		 */
+		ReturnPromise(String name, Executor executor, Promise<S> source) {
+			super(name, executor);
+			this.source = source;
+		}
+
+		@Override
+		public String getName() {
+			return RETURN_PROMISE + name;
+		}
+
+		@Override
+		PromiseTracing.Trace getTrace() {
+			return trace;
+		}
+
+		@Override
+		Promise<?> getAwaited() {
+			return source.isAvailable() ? result : source;
+		}
+
+		@Override
+		protected void resolve(int outcome) {
+			if (trace != null)
+				PromiseTracing.resolved(this);
+			super.resolve(outcome);
+		}
+
+		@Override
+		protected void releaseUpstream(Collection<Promise<?>> upstream) {
+			release(source, link, upstream);
+			Promise<R> result = this.result;
+			if (result != null)
+				release(result, this, upstream);
+		}
+
+		void releaseResult() {
+			ArrayDeque<Promise<?>> upstream = new ArrayDeque<Promise<?>>();
+			release(result, this, upstream);
+			for (Promise<?> producer : upstream)
+				producer.cancel();
+		}
+	}
+
+	// the value or the error once resolved, a Stamp or null before
+	private Object result;
+	private volatile int state = PENDING;
+	// null, a single callback which runs on this promise's executor, a stack
+	// of Nodes or DRAINED
+	private volatile Object callbacks;
 	protected final String name;
+	protected final Executor executor;
 
-	public PromiseImpl(String name) {
+	/**
+	 * Constructs a promise whose callbacks run on executor unless
+	 * {@link #whenAvailable(Callback, Executor)} says otherwise
+	 *
+	 * @param name
+	 * @param executor
+	 */
+	public PromiseImpl(String name, Executor executor) {
+		if (executor == null)
+			throw new PromiseException("Executor can't be null");
 		this.name = name;
+		this.executor = executor;
+		PromiseMetrics metrics = PromiseImpl.metrics;
+		// function pointers passed to invokeWhenAvailable() only serve as
+		// templates and are never resolved, so they would count as pending
+		// forever
+		if (metrics != null && !(this instanceof FunctionPointer)) {
+			metrics.created();
+			result = new Stamp(metrics);
+		}
+	}
+
+	public PromiseImpl(String name) {
+		this(name, defaultExecutor);
 	}
 
 	public PromiseImpl() {
 		this("unnamed");
 	}
 
+	/**
+	 * Sets the executor which promises constructed from now on will run their
+	 * callbacks on. Use a dedicated pool in order to keep slow callbacks from
+	 * occupying the threads which resolve promises.
+	 *
+	 * @param executor
+	 */
+	public static void setDefaultExecutor(Executor executor) {
+		if (executor == null)
+			throw new PromiseException("Executor can't be null");
+		defaultExecutor = executor;
+	}
+
+	/**
+	 * Returns the executor new promises run their callbacks on
+	 *
+	 * @return
+	 */
+	public static Executor getDefaultExecutor() {
+		return defaultExecutor;
+	}
+
+	/**
+	 * Switches trampolined resolution on or off (the default). When off,
+	 * callbacks run recursively on the resolving thread, which limits the
+	 * length of synchronously completing chains to the stack size. When on, a
+	 * promise resolved by a callback has run none of its own callbacks yet
+	 * when {@link #set(Object)} returns, unless the callback waits for it.
+	 *
+	 * @param enabled
+	 */
+	public static void setTrampolining(boolean enabled) {
+		trampolining = enabled;
+	}
+
+	public static boolean isTrampolining() {
+		return trampolining;
+	}
+
+	/**
+	 * Installs metrics which promises report their lifecycle to, null
+	 * uninstalls them
+	 *
+	 * @param metrics
+	 */
+	public static void setMetrics(PromiseMetrics metrics) {
+		PromiseImpl.metrics = metrics;
+	}
+
+	public static PromiseMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Returns the name this promise was given
+	 *
+	 * @return
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the trace of a link sampled by {@link PromiseTracing}, null if
+	 * this promise isn't traced
+	 */
+	PromiseTracing.Trace getTrace() {
+		return null;
+	}
+
+	/**
+	 * Returns the promise which this promise waits for to be resolved, null
+	 * if there is none or it isn't known
+	 */
+	Promise<?> getAwaited() {
+		return null;
+	}
+
+	/**
+	 * Returns the executor this promise runs callbacks on by default
+	 *
+	 * @return
+	 */
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	@SuppressWarnings("unchecked")
 	protected void invokeCallback(Callback<T> callback) {
-		if (error != null)
-			callback.fail(error);
-		else
-			callback.set(value);
+		PromiseMetrics metrics = PromiseImpl.metrics;
+		long start = metrics == null ? 0 : System.nanoTime();
+		CallbackEvent event = new CallbackEvent();
+		event.begin();
+		try {
+			if (state == RESOLVED)
+				callback.set((T) result);
+			else
+				callback.fail((Exception) result);
+		} finally {
+			if (metrics != null)
+				metrics.callbackInvoked(System.nanoTime() - start);
+			event.end(this, callback);
+		}
+	}
+
+	protected void invokeCallback(final Callback<T> callback, Executor executor) {
+		if (executor == INLINE) {
+			invokeCallback(callback);
+			return;
+		}
+		executor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				invokeCallback(callback);
+			}
+		});
 	}
 
 	@Override
 	public Exception getError() {
-		return error;
+		return state > RESOLVED ? (Exception) result : null;
 	}
 
+	/**
+	 * Detaches the callbacks and invokes them in the order in which they were
+	 * registered. A callback which throws doesn't keep the others from
+	 * running; the first exception is rethrown at the end.
+	 */
+	@SuppressWarnings("unchecked")
 	protected void invokeCallbacks() {
-		synchronized (callbacks) {
-			for (Callback<T> c : callbacks)
-				invokeCallback(c);
+		Object head = CALLBACKS.getAndSet(this, DRAINED);
+		if (head == null)
+			return;
+		if (!(head instanceof Node)) {
+			invokeCallback((Callback<T>) head, executor);
+			return;
+		}
+		// removeCallback() may still be walking the nodes, so they are
+		// collected in an array rather than relinked in registration order
+		@SuppressWarnings("rawtypes")
+		Node<T>[] nodes = new Node[4];
+		int count = 0;
+		for (Node<T> n = (Node<T>) head; n != null; n = n.next) {
+			if (count == nodes.length)
+				nodes = Arrays.copyOf(nodes, count * 2);
+			nodes[count++] = n;
+		}
+		RuntimeException failure = null;
+		while (count > 0) {
+			Node<T> n = nodes[--count];
+			// claimed like in removeCallback(), so that a callback is either
+			// removed or invoked but never both
+			Callback<T> callback = (Callback<T>) NODE_CALLBACK
+					.getAndSet(n, null);
+			if (callback == null)
+				continue;
+			try {
+				invokeCallback(callback, n.executor);
+			} catch (RuntimeException e) {
+				if (failure == null)
+					failure = e;
+			}
 		}
+		if (failure != null)
+			throw failure;
 	}
 
+	@SuppressWarnings("unchecked")
 	@Override
 	public T get() throws PromiseException {
-		synchronized (callbacks) {
-			if (!isSet)
-				throw new NotResolvedException(
-						"Promise hasn't been resolved yet");
-			return value;
+		int s = state;
+		if (s < RESOLVED)
+			throw new NotResolvedException("Promise hasn't been resolved yet");
+		return s == RESOLVED ? (T) result : null;
+	}
+
+	/**
+	 * Claims the right to resolve this promise. Exactly one caller of
+	 * {@link #set(Object)}, {@link #fail(Exception)} or {@link #cancel()}
+	 * wins. Returns false if the promise has been cancelled, in which case the
+	 * value is dropped.
+	 */
+	private boolean claim() {
+		if (STATE.compareAndSet(this, PENDING, COMPLETING))
+			return true;
+		if (isCancelled())
+			return false;
+		throw new AlreadyResolvedException("Promise has already been resolved: "
+				+ toString());
+	}
+
+	protected void resolve(int outcome) {
+		state = outcome;
+		if (!trampolining) {
+			complete();
+			return;
 		}
+		Trampoline trampoline = TRAMPOLINE.get();
+		trampoline.pending.add(this);
+		if (trampoline.running)
+			return;
+		trampoline.running = true;
+		RuntimeException failure;
+		try {
+			trampoline.drain();
+		} finally {
+			trampoline.running = false;
+			failure = trampoline.failure;
+			trampoline.failure = null;
+		}
+		if (failure != null)
+			throw failure;
 	}
 
-	protected void resolve() {
-		synchronized (callbacks) {
-			isSet = true;
+	/**
+	 * Runs the callbacks which the current thread queued while resolving
+	 * promises from within a callback. A callback which blocks on a promise
+	 * further down its chain would otherwise wait for itself.
+	 */
+	private static void runQueuedCallbacks() {
+		if (!trampolining)
+			return;
+		Trampoline trampoline = TRAMPOLINE.get();
+		if (trampoline.running)
+			trampoline.drain();
+	}
+
+	/**
+	 * Stores the value or error in place of the creation stamp, if any, and
+	 * reports the outcome to the metrics which counted this promise
+	 */
+	private void store(Object result, int outcome) {
+		Object stamp = this.result;
+		this.result = result;
+		if (stamp != null)
+			((Stamp) stamp).report(outcome);
+	}
+
+	/**
+	 * Runs callbacks and wakes up waiting threads
+	 */
+	private void complete() {
+		PromiseResolutionEvent event = new PromiseResolutionEvent();
+		event.begin();
+		try {
 			invokeCallbacks();
-			callbacks.notifyAll();
+		} finally {
+			event.end(this, state == RESOLVED ? "resolved"
+					: state == FAILED ? "failed" : "cancelled");
 		}
 	}
 
 	@Override
 	public void set(T value) throws PromiseException {
-		synchronized (callbacks) {
-			if (isSet)
-				throw new AlreadyResolvedException(
-						"Promise has already been resolved: " + toString());
-			this.value = value;
-			resolve();
-		}
+		if (!claim())
+			return;
+		store(value, RESOLVED);
+		resolve(RESOLVED);
 	}
 
 	@Override
 	public void whenAvailable(Callback<T> callback) {
-		synchronized (callbacks) {
-			if (callbacks.contains(callback))
-				throw new PromiseException("Don't register callbacks twice");
-			if (isSet)
-				invokeCallback(callback);
-			else
-				callbacks.add(callback);
+		whenAvailable(callback, executor);
+	}
+
+	@Override
+	public void whenAvailable(Callback<T> callback, Executor executor) {
+		if (executor == null)
+			throw new PromiseException("Executor can't be null");
+		if (!register(callback, executor))
+			invokeCallback(callback, executor);
+	}
+
+	/**
+	 * Adds callback to the callbacks. The first one is stored as it is if it
+	 * runs on this promise's executor; the second one turns them into a
+	 * stack. Returns false if the callbacks have already been drained.
+	 */
+	private boolean register(Callback<T> callback, Executor executor) {
+		if (executor == this.executor && callbacks == null
+				&& CALLBACKS.compareAndSet(this, null, callback))
+			return true;
+		return push(callback, executor);
+	}
+
+	@SuppressWarnings("unchecked")
+	private boolean push(Callback<T> callback, Executor executor) {
+		for (;;) {
+			Object head = callbacks;
+			if (head == DRAINED)
+				return false;
+			Node<T> next;
+			if (head instanceof Node) {
+				next = (Node<T>) head;
+				// only the latest registrations are looked at so that adding
+				// a callback doesn't take longer the more there are
+				Node<T> n = next;
+				for (int i = 0; i < MAX_DUPLICATE_CHECK && n != null; i++) {
+					if (callback.equals(n.callback))
+						throw new PromiseException(
+								"Don't register callbacks twice");
+					n = n.next;
+				}
+			} else if (head != null) {
+				if (callback.equals(head))
+					throw new PromiseException(
+							"Don't register callbacks twice");
+				next = new Node<T>((Callback<T>) head, this.executor, null);
+			} else if (executor == this.executor) {
+				// the single callback was removed meanwhile
+				if (CALLBACKS.compareAndSet(this, null, callback))
+					return true;
+				continue;
+			} else
+				next = null;
+			if (CALLBACKS.compareAndSet(this, head, new Node<T>(callback,
+					executor, next)))
+				return true;
 		}
 	}
 
+	@SuppressWarnings("unchecked")
 	@Override
-	public void fail(Exception e) throws PromiseException {
-		synchronized (callbacks) {
+	public boolean removeCallback(Callback<T> callback) {
+		Object head;
+		for (;;) {
+			head = callbacks;
+			if (head == null || head == DRAINED)
+				return false;
+			if (head instanceof Node)
+				break;
+			if (!head.equals(callback))
+				return false;
+			if (CALLBACKS.compareAndSet(this, head, null))
+				return true;
+		}
+		boolean removed = false;
+		Node<T> pred = null;
+		for (Node<T> n = (Node<T>) head; n != null; n = n.next) {
+			Callback<T> c = n.callback;
+			if (c != null && !removed && c.equals(callback)
+					&& NODE_CALLBACK.compareAndSet(n, c, null)) {
+				removed = true;
+				c = null;
+			}
+			if (c != null) {
+				pred = n;
+				continue;
+			}
+			// unlink removed nodes. A concurrent unlink may put a removed
+			// node back, which is harmless because it's skipped anyway.
+			if (pred == null) {
+				if (!CALLBACKS.compareAndSet(this, n, n.next))
+					pred = n;
+			} else
+				pred.next = n.next;
+		}
+		return removed;
+	}
 
-			if (isSet)
+	@Override
+	public void fail(Exception e) throws PromiseException {
+		if (e == null) {
+			if (state != PENDING && !isCancelled())
 				throw new AlreadyResolvedException(
 						"Promise has already been resolved");
-			if (e == null)
-				throw new PromiseException("Error can't be null");
-			this.error = e;
-			resolve();
+			throw new PromiseException("Error can't be null");
+		}
+		if (!claim())
+			return;
+		store(e, FAILED);
+		resolve(FAILED);
+	}
+
+	@Override
+	public boolean cancel() {
+		ArrayDeque<Promise<?>> upstream = new ArrayDeque<Promise<?>>();
+		boolean cancelled = false;
+		RuntimeException failure = null;
+		try {
+			cancelled = cancel(upstream);
+		} catch (RuntimeException e) {
+			failure = e;
+		}
+		// producers are cancelled in a loop rather than recursively so that
+		// long chains don't overflow the stack
+		Promise<?> producer;
+		while ((producer = upstream.poll()) != null) {
+			try {
+				if (producer instanceof PromiseImpl)
+					((PromiseImpl<?>) producer).cancel(upstream);
+				else
+					producer.cancel();
+			} catch (RuntimeException e) {
+				if (failure == null)
+					failure = e;
+			}
+		}
+		if (failure != null)
+			throw failure;
+		return cancelled;
+	}
+
+	/**
+	 * Cancels this promise and adds the producers which should be cancelled
+	 * with it to upstream
+	 */
+	private boolean cancel(Collection<Promise<?>> upstream) {
+		if (!STATE.compareAndSet(this, PENDING, CANCELLING))
+			return false;
+		store(new PromiseCancelledException("Promise has been cancelled: "
+				+ getName()), CANCELLED);
+		// unhook from producers first so that they don't call into this
+		// promise's chain anymore
+		releaseUpstream(upstream);
+		resolve(CANCELLED);
+		return true;
+	}
+
+	/**
+	 * Called when this promise is cancelled. Subclasses which listen to other
+	 * promises remove their callbacks from them here, and add those which
+	 * should be cancelled too to upstream, see
+	 * {@link #release(Promise, Callback, Collection)}.
+	 *
+	 * @param upstream
+	 */
+	protected void releaseUpstream(Collection<Promise<?>> upstream) {
+	}
+
+	/**
+	 * Removes callback from producer and adds producer to upstream if nothing
+	 * else is waiting for it anymore
+	 *
+	 * @param producer
+	 * @param callback
+	 * @param upstream
+	 */
+	protected static <X> void release(Promise<X> producer,
+			Callback<X> callback, Collection<Promise<?>> upstream) {
+		if (producer.removeCallback(callback)
+				&& producer instanceof PromiseImpl
+				&& !((PromiseImpl<X>) producer).hasCallbacks())
+			upstream.add(producer);
+	}
+
+	@Override
+	public boolean isCancelled() {
+		int s = state;
+		return s == CANCELLING || s == CANCELLED;
+	}
+
+	/**
+	 * Determines whether callbacks are waiting for this promise
+	 *
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	protected boolean hasCallbacks() {
+		Object head = callbacks;
+		if (head == null || head == DRAINED)
+			return false;
+		if (!(head instanceof Node))
+			return !(head instanceof Waiter);
+		for (Node<T> n = (Node<T>) head; n != null; n = n.next) {
+			Callback<T> callback = n.callback;
+			if (callback != null && !(callback instanceof Waiter))
+				return true;
 		}
+		return false;
+	}
+
+	@Override
+	public <R> Promise<R> invokeWhenAvailable(
+			final FunctionPointer<R> functionPointer) {
+		return invokeWhenAvailable(functionPointer, executor);
 	}
 
 	@Override
-	public <R> Promise<R> invokeWhenAvailable(final FunctionPointer<R> functionPointer) {
-		synchronized (callbacks) {
+	public <R> Promise<R> invokeWhenAvailable(
+			final FunctionPointer<R> functionPointer, Executor executor) {
+		/**
+		 * A rundown of this construct: When this promise resolves, it will
+		 * call the function pointer. The function pointer may return as the
+		 * result of its invocation another promise. That promise isn't
+		 * necessarily immediately resolved. Since every invocation of
+		 * functionPointer will return a different instance of a promise, we
+		 * can't just "final promise = ..." and remember the first promise ever
+		 * returned.
+		 *
+		 * Thus, once "this" promise resolves, it will call the function
+		 * pointer. The function pointer returns a promise which may, or may
+		 * not have been resolved. In any case, we listen to that result
+		 * promise and once it resolves we resolve correspondingly the
+		 * returnPromise
+		 */
+
+		// chains name all return promises after their head, which they
+		// share the name of
+		final ReturnPromise<T, R> returnPromise = new ReturnPromise<T, R>(
+				name, this.executor, this);
+		if (PromiseTracing.sampleRate != 0)
+			trace(returnPromise, functionPointer);
+		returnPromise.link = new Callback<T>() {
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public void set(T success) {
+				// the pointer isn't invoked anymore once the chain has been
+				// cancelled
+				if (returnPromise.isCancelled())
+					return;
+				Promise<R> result;
+				try {
+					if (functionPointer.isAvailable())
+						result = functionPointer;
+					else if (returnPromise.trace == null)
+						result = invoke(functionPointer);
+					else
+						result = PromiseTracing.invoke(returnPromise.trace,
+								functionPointer);
+				} catch (RuntimeException e) {
+					// the chain would never resolve otherwise
+					returnPromise.fail(e);
+					return;
+				}
+				if (result == null) {
+					returnPromise.fail(new FunctionPointerException(
+							functionPointer + " returned null"));
+					return;
+				}
+				returnPromise.result = result;
+				result.whenAvailable(returnPromise);
+				// cancelled while the pointer ran
+				if (returnPromise.isCancelled())
+					returnPromise.releaseResult();
+			}
+
 			/**
-			 * A rundown of this construct: When this promise resolves, it will
-			 * call the function pointer. The function pointer may return as the
-			 * result of its invocation another promise. That promise isn't
-			 * necessarily immediately resolved. Since every invocation of
-			 * functionPointer will return a different instance of a promise, we
-			 * can't just "final promise = ..." and remember the first promise
-			 * ever returned.
-			 * 
-			 * Thus, once "this" promise resolves, it will call the function
-			 * pointer. The function pointer returns a promise which may, or may
-			 * not have been resolved. In any case, we listen to that result
-			 * promise and once it resolves we resolve correspondingly the
-			 * returnPromise
+			 * The pointer would never see a value, so the chain fails right
+			 * away with the same error
 			 */
+			@Override
+			public void fail(Exception e) {
+				if (e instanceof PromiseCancelledException)
+					returnPromise.cancel();
+				else
+					returnPromise.fail(e);
+			}
+		};
+		whenAvailable(returnPromise.link, executor);
+		return returnPromise;
+	}
 
-			final Promise<R> returnPromise = new PromiseImpl<R>(
-					"returnPromise from PromiseImpl.whenAvailable(FP) " + name);
-			whenAvailable(new Callback<T>() {
-
-				@SuppressWarnings("unchecked")
-				@Override
-				public void set(T success) {
-					synchronized (callbacks) {
-						Promise<R> result = null;
-						if (functionPointer.isAvailable())
-							result = (Promise<R>) functionPointer;
-						else
-							result = (Promise<R>) functionPointer.invoke();
-						result.whenAvailable(returnPromise);
-					}
-				}
+	private void trace(ReturnPromise<T, ?> link, FunctionPointer<?> pointer) {
+		link.trace = PromiseTracing.sample(this, pointer);
+		if (link.trace != null)
+			PromiseTracing.created(link);
+	}
 
-				@Override
-				public void fail(Exception e) {
-				}
-			});
-			return returnPromise;
+	/**
+	 * Runs the method of pointer and returns the promise it returned
+	 */
+	@SuppressWarnings("unchecked")
+	static <R> Promise<R> invoke(FunctionPointer<R> pointer) {
+		PointerInvocationEvent event = new PointerInvocationEvent();
+		event.begin();
+		try {
+			return (Promise<R>) pointer.invoke();
+		} finally {
+			event.end(pointer);
 		}
 	}
 
 	@Override
 	public boolean isAvailable() {
-		synchronized (callbacks) {
-			return isSet;
-		}
+		return state >= RESOLVED;
 	}
 
 	@Override
 	public void waitForResolution() {
-		synchronized (callbacks) {
-			if (isAvailable())
-				return;
-			try {
-				callbacks.wait();
-			} catch (InterruptedException e) {
+		if (isAvailable())
+			return;
+		runQueuedCallbacks();
+		boolean interrupted = false;
+		Waiter waiter = new Waiter(Thread.currentThread());
+		if (register(waiter))
+			while (!isAvailable()) {
+				LockSupport.park(this);
+				// keep waiting, but let the caller see the interruption
+				if (Thread.interrupted())
+					interrupted = true;
 			}
+		waiter.thread = null;
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	@Override
+	public boolean waitForResolution(long timeout, TimeUnit unit)
+			throws InterruptedException {
+		if (isAvailable())
+			return true;
+		if (Thread.interrupted())
+			throw new InterruptedException();
+		runQueuedCallbacks();
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		Waiter waiter = new Waiter(Thread.currentThread());
+		if (!register(waiter))
+			return true;
+		try {
+			while (!isAvailable()) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0)
+					return false;
+				LockSupport.parkNanos(this, remaining);
+				if (Thread.interrupted())
+					throw new InterruptedException();
+			}
+			return true;
+		} finally {
+			if (waiter.thread != null)
+				removeWaiter(waiter);
 		}
 	}
 
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private boolean register(Waiter waiter) {
+		return register((Callback) waiter, INLINE);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void removeWaiter(Waiter waiter) {
+		waiter.thread = null;
+		removeCallback((Callback) waiter);
+	}
+
 	@Override
 	public String toString() {
-		return "PromiseImpl " + name + ": "
-				+ (isSet ? "resolved" : "unresolved");
+		return "PromiseImpl " + getName() + ": "
+				+ (isAvailable() ? "resolved" : "unresolved");
 	}
 
 }
@@ -0,0 +1,62 @@
+package reactive;
+
+/**
+ * Receives lifecycle events of promises once installed with
+ * {@link PromiseImpl#setMetrics(PromiseMetrics)}. Events are reported on the
+ * thread they happen on, while callbacks may be running, so implementations
+ * must be thread safe and fast; {@link PromiseStatistics} is one which sums
+ * them up in striped counters and exposes them over JMX.
+ *
+ * Promises report their resolution to the metrics which counted their
+ * creation, and promises created while no metrics were installed don't report
+ * it at all, so counts stay consistent when metrics are installed or replaced
+ * on a running system. Function pointers report nothing, since those passed to
+ * {@link Promise#invokeWhenAvailable(FunctionPointer)} are never resolved.
+ *
+ * @author george georgovassilis
+ *
+ */
+public interface PromiseMetrics {
+
+	/**
+	 * A promise has been created
+	 */
+	void created();
+
+	/**
+	 * A promise has been set, nanos after it was created
+	 *
+	 * @param nanos
+	 */
+	void resolved(long nanos);
+
+	/**
+	 * A promise has failed, nanos after it was created
+	 *
+	 * @param nanos
+	 */
+	void failed(long nanos);
+
+	/**
+	 * A promise has been cancelled, nanos after it was created
+	 *
+	 * @param nanos
+	 */
+	void cancelled(long nanos);
+
+	/**
+	 * A callback ran for nanos. When resolution is trampolined this doesn't
+	 * include callbacks of promises which the callback resolved. Threads
+	 * woken up from {@link Promise#waitForResolution()} count as callbacks.
+	 *
+	 * @param nanos
+	 */
+	void callbackInvoked(long nanos);
+
+	/**
+	 * {@link FunctionPointerImpl#invoke()} ran the pointer's method for nanos
+	 *
+	 * @param nanos
+	 */
+	void pointerInvoked(long nanos);
+}
@@ -0,0 +1,354 @@
+package reactive;
+
+import java.util.Collection;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import reactive.exceptions.PromiseCancelledException;
+import reactive.exceptions.PromiseException;
+
+/**
+ * Owns the promises which make up one unit of work, e.g. the calls a
+ * controller makes for a request, and keeps them together:
+ * <ul>
+ * <li>at most maxInFlight children run at once; function pointers passed to
+ * {@link #fork(FunctionPointer)} are invoked once a running child resolves
+ * </li>
+ * <li>when a child fails, the other children are cancelled</li>
+ * <li>{@link #close()} returns a promise which resolves once all children
+ * have, or fails with the first error</li>
+ * <li>cancelling that promise cancels all children</li>
+ * </ul>
+ *
+ * Promises become children by being passed to {@link #add(Promise)} or
+ * {@link #fork(FunctionPointer)}; a scope doesn't see promises created
+ * elsewhere. Children may add further children before they resolve, also
+ * after the scope has been closed, as long as it hasn't completed yet.
+ *
+ * Nothing blocks: queued function pointers are invoked by the thread which
+ * frees their slot, and completion is a promise to chain to. The scope keeps
+ * references only to children which haven't resolved yet, so a failed or
+ * cancelled request releases its callbacks at once.
+ *
+ * @author george georgovassilis
+ *
+ */
+public class PromiseScope {
+
+	private final static AtomicIntegerFieldUpdater<PromiseScope> OPEN = AtomicIntegerFieldUpdater
+			.newUpdater(PromiseScope.class, "open");
+
+	private final static AtomicIntegerFieldUpdater<PromiseScope> IN_FLIGHT = AtomicIntegerFieldUpdater
+			.newUpdater(PromiseScope.class, "inFlight");
+
+	private final static AtomicIntegerFieldUpdater<PromiseScope> CLOSED = AtomicIntegerFieldUpdater
+			.newUpdater(PromiseScope.class, "closed");
+
+	private final static AtomicReferenceFieldUpdater<PromiseScope, Exception> FAILURE = AtomicReferenceFieldUpdater
+			.newUpdater(PromiseScope.class, Exception.class, "failure");
+
+	private final static int WAITING = 0;
+	private final static int RUNNING = 1;
+	private final static int DONE = 2;
+
+	/**
+	 * Watches a child and releases its slot once it resolves. A forked child
+	 * waits for a slot until either the scope starts it or it is resolved,
+	 * e.g. by being cancelled, whichever comes first.
+	 */
+	private final static class Child implements Callback<Object> {
+
+		private final static AtomicIntegerFieldUpdater<Child> STATE = AtomicIntegerFieldUpdater
+				.newUpdater(Child.class, "state");
+
+		final PromiseScope scope;
+		final Promise<?> promise;
+		volatile int state;
+
+		Child(PromiseScope scope, Promise<?> promise, int state) {
+			this.scope = scope;
+			this.promise = promise;
+			this.state = state;
+		}
+
+		@Override
+		public void set(Object value) {
+			scope.done(this);
+		}
+
+		@Override
+		public void fail(Exception error) {
+			if (!(error instanceof PromiseCancelledException))
+				scope.failed(error);
+			scope.done(this);
+		}
+	}
+
+	/**
+	 * Promise returned by {@link PromiseScope#fork(FunctionPointer)}. It
+	 * resolves like the promise the pointer returns, and cancelling it cancels
+	 * that promise unless something else waits for it.
+	 */
+	private final static class Forked<R> extends PromiseImpl<R> {
+		final FunctionPointer<R> pointer;
+		volatile Promise<R> result;
+		Child child;
+
+		Forked(String name, FunctionPointer<R> pointer) {
+			super(name);
+			this.pointer = pointer;
+		}
+
+		@SuppressWarnings("unchecked")
+		void start() {
+			if (isAvailable())
+				return;
+			// the scope may have failed or been cancelled after this child
+			// got its slot
+			if (child.scope.isDoomed()) {
+				cancel();
+				return;
+			}
+			Promise<R> result;
+			try {
+				result = pointer.isAvailable() ? pointer : (Promise<R>) pointer
+						.invoke();
+			} catch (RuntimeException e) {
+				fail(e);
+				return;
+			}
+			this.result = result;
+			result.whenAvailable(this, PromiseImpl.INLINE);
+			// cancelled while the pointer ran
+			if (isCancelled())
+				cancel();
+		}
+
+		@Override
+		protected void releaseUpstream(Collection<Promise<?>> upstream) {
+			Promise<R> result = this.result;
+			if (result != null)
+				release(result, this, upstream);
+		}
+	}
+
+	private final String name;
+	private final int maxInFlight;
+	private final Set<Child> children = ConcurrentHashMap.newKeySet();
+	private final Queue<Forked<?>> queue = new ConcurrentLinkedQueue<Forked<?>>();
+	private final PromiseImpl<Void> completion;
+	// unresolved children plus one while the scope hasn't been closed
+	private volatile int open = 1;
+	private volatile int inFlight;
+	private volatile int closed;
+	private volatile Exception failure;
+
+	/**
+	 * Creates a scope
+	 *
+	 * @param name
+	 * @param maxInFlight
+	 *            how many children may run at once
+	 */
+	public PromiseScope(String name, int maxInFlight) {
+		if (maxInFlight <= 0)
+			throw new PromiseException("Need at least one child in flight");
+		this.name = name;
+		this.maxInFlight = maxInFlight;
+		this.completion = new PromiseImpl<Void>("scope " + name) {
+
+			@Override
+			protected void releaseUpstream(Collection<Promise<?>> upstream) {
+				cancelChildren();
+			}
+		};
+	}
+
+	/**
+	 * Creates a scope which doesn't limit how many children run at once
+	 *
+	 * @param name
+	 */
+	public PromiseScope(String name) {
+		this(name, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Adopts a promise which is already running. It counts towards the
+	 * children in flight, but isn't held back by the limit. If the scope has
+	 * failed or been cancelled, the promise is cancelled.
+	 *
+	 * @param promise
+	 * @return promise
+	 */
+	public <T> Promise<T> add(Promise<T> promise) {
+		open();
+		IN_FLIGHT.incrementAndGet(this);
+		watch(new Child(this, promise, RUNNING));
+		return promise;
+	}
+
+	/**
+	 * Invokes pointer as soon as fewer than maxInFlight children are running,
+	 * possibly right away on the calling thread
+	 *
+	 * @param pointer
+	 * @return a promise which resolves like the promise the pointer returns
+	 */
+	public <R> Promise<R> fork(FunctionPointer<R> pointer) {
+		open();
+		Forked<R> forked = new Forked<R>(name, pointer);
+		forked.child = new Child(this, forked, WAITING);
+		watch(forked.child);
+		queue.add(forked);
+		startQueued();
+		return forked;
+	}
+
+	/**
+	 * Closes the scope. Children which are running may still add children.
+	 *
+	 * @return a promise which resolves once all children have resolved, or
+	 *         fails with the error of the first child which failed
+	 */
+	public Promise<Void> close() {
+		if (CLOSED.compareAndSet(this, 0, 1))
+			release();
+		return completion;
+	}
+
+	/**
+	 * Cancels all children and the promise returned by {@link #close()}
+	 *
+	 * @return true if this call cancelled the scope
+	 */
+	public boolean cancel() {
+		return completion.cancel();
+	}
+
+	/**
+	 * Returns how many children hold a slot
+	 *
+	 * @return
+	 */
+	public int getInFlight() {
+		return inFlight;
+	}
+
+	/**
+	 * Returns how many forked function pointers wait for a slot
+	 *
+	 * @return
+	 */
+	public int getQueued() {
+		return queue.size();
+	}
+
+	/**
+	 * Counts a new child unless the scope has completed
+	 */
+	private void open() {
+		for (;;) {
+			int n = open;
+			if (n == 0)
+				throw new PromiseException("Scope has completed: " + this);
+			if (OPEN.compareAndSet(this, n, n + 1))
+				return;
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void watch(Child child) {
+		children.add(child);
+		child.promise.whenAvailable((Callback) child, PromiseImpl.INLINE);
+		// the scope may have failed before the child was seen
+		if (isDoomed())
+			child.promise.cancel();
+	}
+
+	/**
+	 * Starts queued function pointers while slots are free
+	 */
+	private void startQueued() {
+		while (!queue.isEmpty()) {
+			if (isDoomed()) {
+				cancelQueued();
+				return;
+			}
+			int n = inFlight;
+			if (n >= maxInFlight)
+				return;
+			if (!IN_FLIGHT.compareAndSet(this, n, n + 1))
+				continue;
+			Forked<?> forked = queue.poll();
+			if (forked == null
+					|| !Child.STATE.compareAndSet(forked.child, WAITING,
+							RUNNING)) {
+				IN_FLIGHT.decrementAndGet(this);
+				continue;
+			}
+			forked.start();
+		}
+	}
+
+	private void failed(Exception error) {
+		if (FAILURE.compareAndSet(this, null, error))
+			cancelChildren();
+	}
+
+	/**
+	 * Cancels queued children first, so that the slots freed by cancelling
+	 * running children don't start them
+	 */
+	private void cancelChildren() {
+		cancelQueued();
+		for (Child child : children)
+			child.promise.cancel();
+	}
+
+	private void cancelQueued() {
+		Forked<?> forked;
+		while ((forked = queue.poll()) != null)
+			forked.cancel();
+	}
+
+	/**
+	 * Whether the scope has failed or been cancelled, so that no further
+	 * children should run
+	 */
+	private boolean isDoomed() {
+		return failure != null || completion.isCancelled();
+	}
+
+	private void done(Child child) {
+		int state = Child.STATE.getAndSet(child, DONE);
+		if (state == DONE)
+			return;
+		children.remove(child);
+		if (state == RUNNING) {
+			IN_FLIGHT.decrementAndGet(this);
+			startQueued();
+		}
+		release();
+	}
+
+	private void release() {
+		if (OPEN.decrementAndGet(this) != 0)
+			return;
+		Exception failure = this.failure;
+		if (failure == null)
+			completion.set(null);
+		else
+			completion.fail(failure);
+	}
+
+	@Override
+	public String toString() {
+		return "PromiseScope " + name + ": " + inFlight + " in flight, "
+				+ queue.size() + " queued";
+	}
+}
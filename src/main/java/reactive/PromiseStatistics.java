@@ -0,0 +1,252 @@
+package reactive;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import reactive.exceptions.PromiseException;
+
+/**
+ * {@link PromiseMetrics} which sums up events in striped counters, so threads
+ * resolving promises concurrently don't contend on them. Reading the
+ * statistics adds up the stripes and is therefore more expensive than
+ * recording, and not an atomic snapshot.
+ *
+ * {@link #enable()} installs an instance and registers it with the platform
+ * MBean server as {@value #OBJECT_NAME}, or returns the one it installed
+ * earlier; {@link #disable()} undoes that.
+ * While disabled, promises only check that no metrics are installed.
+ *
+ * @author george georgovassilis
+ *
+ */
+public class PromiseStatistics implements PromiseMetrics,
+		PromiseStatisticsMBean {
+
+	public final static String OBJECT_NAME = "reactive:type=PromiseStatistics";
+
+	private final static LongBinaryOperator MAX = new LongBinaryOperator() {
+
+		@Override
+		public long applyAsLong(long left, long right) {
+			return Math.max(left, right);
+		}
+	};
+
+	private final LongAdder created = new LongAdder();
+	private final LongAdder resolved = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder cancelled = new LongAdder();
+	private final LongAdder resolutionTime = new LongAdder();
+	private final LongAccumulator maxResolutionTime = new LongAccumulator(MAX, 0);
+	private final LongAdder callbacks = new LongAdder();
+	private final LongAdder callbackTime = new LongAdder();
+	private final LongAccumulator maxCallbackTime = new LongAccumulator(MAX, 0);
+	private final LongAdder pointerInvocations = new LongAdder();
+	private final LongAdder pointerTime = new LongAdder();
+
+	private static PromiseStatistics enabled;
+
+	/**
+	 * Installs an instance with {@link PromiseImpl#setMetrics(PromiseMetrics)}
+	 * and registers it as an MBean, replacing one registered earlier. While
+	 * enabled, returns the installed instance so that its counts carry on.
+	 *
+	 * @return
+	 */
+	public static synchronized PromiseStatistics enable() {
+		if (enabled != null && PromiseImpl.getMetrics() == enabled)
+			return enabled;
+		PromiseStatistics statistics = new PromiseStatistics();
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+			server.registerMBean(statistics, name);
+		} catch (JMException e) {
+			throw new PromiseException(e);
+		}
+		PromiseImpl.setMetrics(statistics);
+		enabled = statistics;
+		return statistics;
+	}
+
+	/**
+	 * Uninstalls metrics and unregisters the MBean
+	 */
+	public static synchronized void disable() {
+		enabled = null;
+		PromiseImpl.setMetrics(null);
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+		} catch (JMException e) {
+			throw new PromiseException(e);
+		}
+	}
+
+	@Override
+	public void created() {
+		created.increment();
+	}
+
+	@Override
+	public void resolved(long nanos) {
+		resolved.increment();
+		resolutionTime(nanos);
+	}
+
+	@Override
+	public void failed(long nanos) {
+		failed.increment();
+		resolutionTime(nanos);
+	}
+
+	@Override
+	public void cancelled(long nanos) {
+		cancelled.increment();
+		resolutionTime(nanos);
+	}
+
+	private void resolutionTime(long nanos) {
+		resolutionTime.add(nanos);
+		maxResolutionTime.accumulate(nanos);
+	}
+
+	@Override
+	public void callbackInvoked(long nanos) {
+		callbacks.increment();
+		callbackTime.add(nanos);
+		maxCallbackTime.accumulate(nanos);
+	}
+
+	@Override
+	public void pointerInvoked(long nanos) {
+		pointerInvocations.increment();
+		pointerTime.add(nanos);
+	}
+
+	@Override
+	public long getCreatedCount() {
+		return created.sum();
+	}
+
+	@Override
+	public long getResolvedCount() {
+		return resolved.sum();
+	}
+
+	@Override
+	public long getFailedCount() {
+		return failed.sum();
+	}
+
+	@Override
+	public long getCancelledCount() {
+		return cancelled.sum();
+	}
+
+	/**
+	 * Promises created but not resolved, failed or cancelled yet
+	 */
+	@Override
+	public long getPendingCount() {
+		// read completions first so that a promise completing meanwhile
+		// can't make the count negative
+		long completed = resolved.sum() + failed.sum() + cancelled.sum();
+		return Math.max(0, created.sum() - completed);
+	}
+
+	/**
+	 * Average time from creation to resolution, failure or cancellation
+	 */
+	@Override
+	public double getAverageResolutionTime() {
+		return average(resolutionTime.sum(), resolved.sum() + failed.sum()
+				+ cancelled.sum());
+	}
+
+	@Override
+	public long getMaxResolutionTime() {
+		return toMicros(maxResolutionTime.get());
+	}
+
+	@Override
+	public long getCallbackCount() {
+		return callbacks.sum();
+	}
+
+	@Override
+	public double getAverageCallbackTime() {
+		return average(callbackTime.sum(), callbacks.sum());
+	}
+
+	@Override
+	public long getMaxCallbackTime() {
+		return toMicros(maxCallbackTime.get());
+	}
+
+	/**
+	 * Callbacks invoked per resolved, failed or cancelled promise
+	 */
+	@Override
+	public double getCallbacksPerPromise() {
+		long completed = resolved.sum() + failed.sum() + cancelled.sum();
+		return completed == 0 ? 0 : (double) callbacks.sum() / completed;
+	}
+
+	@Override
+	public long getPointerInvocationCount() {
+		return pointerInvocations.sum();
+	}
+
+	@Override
+	public double getAveragePointerInvocationTime() {
+		return average(pointerTime.sum(), pointerInvocations.sum());
+	}
+
+	/**
+	 * Sets all statistics back to 0. Events recorded concurrently may be
+	 * lost.
+	 */
+	@Override
+	public void reset() {
+		created.reset();
+		resolved.reset();
+		failed.reset();
+		cancelled.reset();
+		resolutionTime.reset();
+		maxResolutionTime.reset();
+		callbacks.reset();
+		callbackTime.reset();
+		maxCallbackTime.reset();
+		pointerInvocations.reset();
+		pointerTime.reset();
+	}
+
+	private static double average(long nanos, long count) {
+		return count == 0 ? 0 : (double) nanos / count
+				/ TimeUnit.MICROSECONDS.toNanos(1);
+	}
+
+	private static long toMicros(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+
+	@Override
+	public String toString() {
+		return "PromiseStatistics created=" + getCreatedCount() + " pending="
+				+ getPendingCount() + " failed=" + getFailedCount()
+				+ " cancelled=" + getCancelledCount() + " callbacks="
+				+ getCallbackCount();
+	}
+}
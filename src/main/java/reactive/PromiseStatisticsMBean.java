@@ -0,0 +1,38 @@
+package reactive;
+
+/**
+ * JMX view of {@link PromiseStatistics}. Durations are in microseconds.
+ *
+ * @author george georgovassilis
+ *
+ */
+public interface PromiseStatisticsMBean {
+
+	long getCreatedCount();
+
+	long getResolvedCount();
+
+	long getFailedCount();
+
+	long getCancelledCount();
+
+	long getPendingCount();
+
+	double getAverageResolutionTime();
+
+	long getMaxResolutionTime();
+
+	long getCallbackCount();
+
+	double getAverageCallbackTime();
+
+	long getMaxCallbackTime();
+
+	double getCallbacksPerPromise();
+
+	long getPointerInvocationCount();
+
+	double getAveragePointerInvocationTime();
+
+	void reset();
+}
@@ -0,0 +1,481 @@
+package reactive;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import reactive.exceptions.PromiseException;
+
+/**
+ * The multi-value counterpart of a {@link Promise}: a {@link Flow.Publisher}
+ * which producers feed with {@link #offer(Object)} and finish with
+ * {@link #complete()} or {@link #fail(Exception)}.
+ *
+ * Items are kept in a bounded buffer until the subscriber asks for them with
+ * {@link Flow.Subscription#request(long)}. When the buffer is full
+ * {@link #offer(Object)} returns false and the producer can wait for
+ * {@link #whenReady()}. Streams created with {@link #from(Iterator)} pull items
+ * only as the subscriber requests them, so e.g. a large result set is never
+ * materialized.
+ *
+ * A stream has a single subscriber; items are delivered to it one at a time
+ * by whichever thread offers or requests, without taking locks.
+ *
+ * @author george georgovassilis
+ *
+ * @param <T>
+ */
+public class PromiseStream<T> implements Flow.Publisher<T> {
+
+	@SuppressWarnings("rawtypes")
+	private final static AtomicIntegerFieldUpdater<PromiseStream> WIP = AtomicIntegerFieldUpdater
+			.newUpdater(PromiseStream.class, "wip");
+
+	@SuppressWarnings("rawtypes")
+	private final static AtomicIntegerFieldUpdater<PromiseStream> SIZE = AtomicIntegerFieldUpdater
+			.newUpdater(PromiseStream.class, "size");
+
+	@SuppressWarnings("rawtypes")
+	private final static AtomicLongFieldUpdater<PromiseStream> REQUESTED = AtomicLongFieldUpdater
+			.newUpdater(PromiseStream.class, "requested");
+
+	@SuppressWarnings("rawtypes")
+	private final static AtomicIntegerFieldUpdater<PromiseStream> SUBSCRIBED = AtomicIntegerFieldUpdater
+			.newUpdater(PromiseStream.class, "subscribed");
+
+	@SuppressWarnings("rawtypes")
+	private final static AtomicReferenceFieldUpdater<PromiseStream, PromiseImpl> READY = AtomicReferenceFieldUpdater
+			.newUpdater(PromiseStream.class, PromiseImpl.class, "ready");
+
+	private final int capacity;
+	private final Queue<T> buffer = new ConcurrentLinkedQueue<T>();
+	private final Iterator<? extends T> source;
+	private volatile int size;
+	private volatile int wip;
+	private volatile long requested;
+	private volatile Flow.Subscriber<? super T> subscriber;
+	private volatile int subscribed;
+	private volatile boolean done;
+	private volatile boolean cancelled;
+	private volatile boolean terminated;
+	private Exception error;
+	private volatile Exception violation;
+	private volatile PromiseImpl<Void> ready;
+
+	/**
+	 * Creates a stream which buffers up to capacity items
+	 *
+	 * @param capacity
+	 */
+	public PromiseStream(int capacity) {
+		this(capacity, null);
+	}
+
+	public PromiseStream() {
+		this(Flow.defaultBufferSize());
+	}
+
+	private PromiseStream(int capacity, Iterator<? extends T> source) {
+		if (capacity <= 0)
+			throw new PromiseException("Capacity must be positive");
+		this.capacity = capacity;
+		this.source = source;
+	}
+
+	/**
+	 * Returns a stream which pulls items from source as they are requested
+	 *
+	 * @param source
+	 * @return
+	 */
+	public static <T> PromiseStream<T> from(Iterator<? extends T> source) {
+		if (source == null)
+			throw new PromiseException("Source can't be null");
+		return new PromiseStream<T>(1, source);
+	}
+
+	public static <T> PromiseStream<T> from(Iterable<? extends T> source) {
+		return from(source.iterator());
+	}
+
+	/**
+	 * Returns a stream which emits the value of promise and completes, or fails
+	 * like promise
+	 *
+	 * @param promise
+	 * @return
+	 */
+	public static <T> PromiseStream<T> from(Promise<T> promise) {
+		final PromiseStream<T> stream = new PromiseStream<T>(1);
+		promise.whenAvailable(new Callback<T>() {
+
+			@Override
+			public void set(T value) {
+				if (value != null)
+					stream.offer(value);
+				stream.complete();
+			}
+
+			@Override
+			public void fail(Exception e) {
+				stream.fail(e);
+			}
+		}, PromiseImpl.INLINE);
+		return stream;
+	}
+
+	/**
+	 * Adds an item to the buffer. Returns false if the buffer is full or the
+	 * subscriber has cancelled.
+	 *
+	 * @param item
+	 * @return
+	 */
+	public boolean offer(T item) {
+		if (item == null)
+			throw new PromiseException("Items can't be null");
+		if (done)
+			throw new PromiseException("Stream has been completed");
+		if (cancelled)
+			return false;
+		if (SIZE.incrementAndGet(this) > capacity) {
+			SIZE.decrementAndGet(this);
+			return false;
+		}
+		buffer.add(item);
+		drain();
+		return true;
+	}
+
+	/**
+	 * Returns a promise which resolves once the buffer has room again. It is
+	 * cancelled if the subscriber cancels.
+	 *
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public Promise<Void> whenReady() {
+		PromiseImpl<Void> promise = ready;
+		if (promise == null) {
+			PromiseImpl<Void> created = new PromiseImpl<Void>(
+					"PromiseStream.whenReady");
+			promise = READY.compareAndSet(this, null, created) ? created
+					: ready;
+		}
+		// the buffer may have drained before the promise was published
+		if (size < capacity || cancelled || terminated)
+			signalReady();
+		return promise;
+	}
+
+	/**
+	 * Completes the stream once the buffered items have been delivered
+	 */
+	public void complete() {
+		done = true;
+		drain();
+	}
+
+	/**
+	 * Fails the stream once the buffered items have been delivered
+	 *
+	 * @param e
+	 */
+	public void fail(Exception e) {
+		if (e == null)
+			throw new PromiseException("Error can't be null");
+		error = e;
+		done = true;
+		drain();
+	}
+
+	/**
+	 * Determines whether the subscriber has cancelled its subscription. The
+	 * producer should stop then.
+	 *
+	 * @return
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super T> subscriber) {
+		if (subscriber == null)
+			throw new NullPointerException("Subscriber can't be null");
+		if (!SUBSCRIBED.compareAndSet(this, 0, 1)) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+
+				@Override
+				public void request(long n) {
+				}
+
+				@Override
+				public void cancel() {
+				}
+			});
+			subscriber.onError(new PromiseException(
+					"PromiseStream allows only one subscriber"));
+			return;
+		}
+		subscriber.onSubscribe(new Flow.Subscription() {
+
+			@Override
+			public void request(long n) {
+				PromiseStream.this.request(n);
+			}
+
+			@Override
+			public void cancel() {
+				PromiseStream.this.cancel();
+			}
+		});
+		this.subscriber = subscriber;
+		drain();
+	}
+
+	protected void request(long n) {
+		if (n <= 0) {
+			violation = new IllegalArgumentException("Requested " + n
+					+ " items, see rule 3.9");
+			drain();
+			return;
+		}
+		for (;;) {
+			long r = requested;
+			long updated = r + n < 0 ? Long.MAX_VALUE : r + n;
+			if (REQUESTED.compareAndSet(this, r, updated))
+				break;
+		}
+		drain();
+	}
+
+	protected void cancel() {
+		cancelled = true;
+		drain();
+	}
+
+	/**
+	 * Delivers as many items as have been requested. Only one thread drains
+	 * at a time; the others leave a note in {@link #wip} and the draining
+	 * thread goes round once more.
+	 */
+	@SuppressWarnings("unchecked")
+	private void drain() {
+		if (WIP.getAndIncrement(this) != 0)
+			return;
+		int missed = 1;
+		for (;;) {
+			Flow.Subscriber<? super T> s = subscriber;
+			if (s != null && !terminated && violation != null) {
+				error = violation;
+				cancelled = true;
+				terminate(s);
+			} else if (s != null && !terminated) {
+				long r = requested;
+				long emitted = 0;
+				while (emitted != r && !cancelled) {
+					T item = next();
+					if (item == null)
+						break;
+					s.onNext(item);
+					emitted++;
+				}
+				if (cancelled)
+					terminate(null);
+				else if (done && size == 0)
+					terminate(s);
+				if (emitted != 0) {
+					if (r != Long.MAX_VALUE)
+						REQUESTED.addAndGet(this, -emitted);
+					signalReady();
+				}
+			}
+			missed = WIP.addAndGet(this, -missed);
+			if (missed == 0)
+				return;
+		}
+	}
+
+	/**
+	 * Takes the next item from the buffer or the source. The source is asked
+	 * for more right away, so that the stream completes with its last item
+	 * rather than on a further request.
+	 */
+	private T next() {
+		T item = buffer.poll();
+		if (item != null) {
+			SIZE.decrementAndGet(this);
+			return item;
+		}
+		if (source == null || done)
+			return null;
+		try {
+			if (!source.hasNext()) {
+				done = true;
+				return null;
+			}
+			item = source.next();
+			if (item == null)
+				throw new PromiseException("Items can't be null");
+		} catch (RuntimeException e) {
+			error = e;
+			done = true;
+			return null;
+		}
+		try {
+			if (!source.hasNext())
+				done = true;
+		} catch (RuntimeException e) {
+			error = e;
+			done = true;
+		}
+		return item;
+	}
+
+	/**
+	 * Signals completion to s, or just releases everything if s is null
+	 */
+	private void terminate(Flow.Subscriber<? super T> s) {
+		terminated = true;
+		subscriber = null;
+		buffer.clear();
+		if (s != null) {
+			if (error != null)
+				s.onError(error);
+			else
+				s.onComplete();
+		}
+		PromiseImpl<Void> promise = ready;
+		if (promise != null)
+			promise.cancel();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void signalReady() {
+		PromiseImpl<Void> promise = ready;
+		if (promise != null && READY.compareAndSet(this, promise, null)) {
+			if (cancelled || terminated)
+				promise.cancel();
+			else
+				promise.set(null);
+		}
+	}
+
+	/**
+	 * Subscribes to the stream and resolves the returned promise with all
+	 * items once the stream completes. This materializes the stream, use
+	 * {@link #forEach(Callback)} for large streams.
+	 *
+	 * @return
+	 */
+	public Promise<List<T>> toList() {
+		final List<T> items = new ArrayList<T>();
+		return forEach(new Callback<T>() {
+
+			@Override
+			public void set(T item) {
+				items.add(item);
+			}
+
+			@Override
+			public void fail(Exception e) {
+			}
+		}, items);
+	}
+
+	/**
+	 * Subscribes to the stream and passes each item to consumer. The returned
+	 * promise resolves once the stream completes, or fails like the stream; a
+	 * consumer which throws cancels the subscription and fails the promise.
+	 *
+	 * @param consumer
+	 * @return
+	 */
+	public Promise<Void> forEach(Callback<T> consumer) {
+		return forEach(consumer, null);
+	}
+
+	private <R> Promise<R> forEach(final Callback<T> consumer, final R result) {
+		final PromiseImpl<R> promise = new PromiseImpl<R>("PromiseStream.forEach");
+		subscribe(new Flow.Subscriber<T>() {
+
+			Flow.Subscription subscription;
+
+			@Override
+			public void onSubscribe(Flow.Subscription subscription) {
+				this.subscription = subscription;
+				subscription.request(capacity);
+			}
+
+			@Override
+			public void onNext(T item) {
+				try {
+					consumer.set(item);
+				} catch (RuntimeException e) {
+					subscription.cancel();
+					promise.fail(e);
+					return;
+				}
+				subscription.request(1);
+			}
+
+			@Override
+			public void onError(Throwable throwable) {
+				Exception e = CompletionStages.toException(throwable);
+				consumer.fail(e);
+				promise.fail(e);
+			}
+
+			@Override
+			public void onComplete() {
+				promise.set(result);
+			}
+		});
+		return promise;
+	}
+
+	/**
+	 * Returns a promise which resolves with the first item, after which the
+	 * subscription is cancelled. Resolves with null if the stream completes
+	 * empty.
+	 *
+	 * @return
+	 */
+	public Promise<T> first() {
+		final PromiseImpl<T> promise = new PromiseImpl<T>("PromiseStream.first");
+		subscribe(new Flow.Subscriber<T>() {
+
+			Flow.Subscription subscription;
+
+			@Override
+			public void onSubscribe(Flow.Subscription subscription) {
+				this.subscription = subscription;
+				subscription.request(1);
+			}
+
+			@Override
+			public void onNext(T item) {
+				subscription.cancel();
+				promise.set(item);
+			}
+
+			@Override
+			public void onError(Throwable throwable) {
+				promise.fail(CompletionStages.toException(throwable));
+			}
+
+			@Override
+			public void onComplete() {
+				promise.set(null);
+			}
+		});
+		return promise;
+	}
+}
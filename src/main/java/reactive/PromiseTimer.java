@@ -0,0 +1,316 @@
+package reactive;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+import reactive.exceptions.AlreadyResolvedException;
+import reactive.exceptions.PromiseException;
+import reactive.exceptions.PromiseTimeoutException;
+
+/**
+ * Fails promises with a {@link PromiseTimeoutException} when they haven't been
+ * resolved by a deadline. Deadlines are kept in a hashed timing wheel: an array
+ * of buckets which a single timer thread visits one per tick. Scheduling and
+ * cancelling a timeout are O(1) and don't take locks; new timeouts are handed
+ * to the timer thread through a queue and cancelled ones are only marked and
+ * dropped the next time the timer visits their bucket.
+ *
+ * Deadlines are rounded up to the next tick, so a timeout never fires early but
+ * may fire up to one tick late. Callbacks of a promise which times out run on
+ * the timer thread unless the promise or callback has an executor.
+ *
+ * @author george georgovassilis
+ *
+ */
+public class PromiseTimer {
+
+	private final static int PENDING = 0;
+	private final static int CANCELLED = 1;
+	private final static int EXPIRED = 2;
+
+	private static volatile PromiseTimer defaultTimer;
+
+	/**
+	 * A scheduled timeout. It is registered as a callback with its promise and
+	 * cancels itself when the promise is resolved. Timeouts scheduled with
+	 * {@link PromiseTimer#schedule(Runnable, long, TimeUnit)} run a task
+	 * instead and have no promise.
+	 */
+	public final static class Timeout implements Callback<Object> {
+
+		private final static AtomicIntegerFieldUpdater<Timeout> STATE = AtomicIntegerFieldUpdater
+				.newUpdater(Timeout.class, "state");
+
+		private final Promise<Object> promise;
+		private final Runnable task;
+		private final long deadline;
+		private volatile int state;
+		// only accessed by the timer thread
+		private long remainingRounds;
+		private Timeout next;
+
+		private Timeout(Promise<Object> promise, Runnable task, long deadline) {
+			this.promise = promise;
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Cancels the timeout. Returns false if it had already expired or been
+		 * cancelled.
+		 *
+		 * @return
+		 */
+		public boolean cancel() {
+			if (!STATE.compareAndSet(this, PENDING, CANCELLED))
+				return false;
+			if (promise != null)
+				promise.removeCallback(this);
+			return true;
+		}
+
+		public boolean isCancelled() {
+			return state == CANCELLED;
+		}
+
+		public boolean isExpired() {
+			return state == EXPIRED;
+		}
+
+		public Promise<?> getPromise() {
+			return promise;
+		}
+
+		@Override
+		public void set(Object value) {
+			STATE.compareAndSet(this, PENDING, CANCELLED);
+		}
+
+		@Override
+		public void fail(Exception error) {
+			STATE.compareAndSet(this, PENDING, CANCELLED);
+		}
+
+		private void expire() {
+			if (!STATE.compareAndSet(this, PENDING, EXPIRED))
+				return;
+			if (task != null) {
+				task.run();
+				return;
+			}
+			try {
+				promise.fail(new PromiseTimeoutException("Timed out: "
+						+ promise));
+			} catch (AlreadyResolvedException e) {
+				// the promise was resolved while the timeout expired
+			}
+		}
+	}
+
+	private final long tickNanos;
+	private final Timeout[] buckets;
+	private final int mask;
+	private final long startTime;
+	private final Queue<Timeout> incoming = new ConcurrentLinkedQueue<Timeout>();
+	private final Thread thread;
+	private volatile boolean stopped;
+	private volatile int size;
+
+	/**
+	 * Creates a timer and starts its thread
+	 *
+	 * @param tickDuration
+	 *            resolution of the timer
+	 * @param unit
+	 * @param ticksPerWheel
+	 *            number of buckets, rounded up to a power of two
+	 */
+	public PromiseTimer(long tickDuration, TimeUnit unit, int ticksPerWheel) {
+		if (tickDuration <= 0)
+			throw new PromiseException("Tick duration must be positive");
+		if (ticksPerWheel <= 0 || ticksPerWheel > 1 << 30)
+			throw new PromiseException("Can't have " + ticksPerWheel
+					+ " ticks per wheel");
+		int wheelSize = Integer.highestOneBit(ticksPerWheel);
+		if (wheelSize < ticksPerWheel)
+			wheelSize <<= 1;
+		this.tickNanos = unit.toNanos(tickDuration);
+		this.buckets = new Timeout[wheelSize];
+		this.mask = wheelSize - 1;
+		this.startTime = System.nanoTime();
+		this.thread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				PromiseTimer.this.run();
+			}
+		}, "PromiseTimer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Creates a timer with a resolution of 10ms and 512 buckets
+	 */
+	public PromiseTimer() {
+		this(10, TimeUnit.MILLISECONDS, 512);
+	}
+
+	/**
+	 * Returns the timer shared by {@link Promises#timeout(Promise, long, TimeUnit)}.
+	 * It is created on first use.
+	 *
+	 * @return
+	 */
+	public static PromiseTimer getDefault() {
+		PromiseTimer timer = defaultTimer;
+		if (timer == null) {
+			synchronized (PromiseTimer.class) {
+				timer = defaultTimer;
+				if (timer == null)
+					defaultTimer = timer = new PromiseTimer();
+			}
+		}
+		return timer;
+	}
+
+	/**
+	 * Fails promise with a {@link PromiseTimeoutException} unless it is
+	 * resolved within the given delay.
+	 *
+	 * @param promise
+	 * @param delay
+	 * @param unit
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public Timeout timeout(Promise<?> promise, long delay, TimeUnit unit) {
+		if (stopped)
+			throw new PromiseException("Timer has been stopped");
+		Timeout timeout = new Timeout((Promise<Object>) promise, null,
+				System.nanoTime() - startTime + unit.toNanos(delay));
+		incoming.add(timeout);
+		// cancels the timeout right away if the promise is already resolved
+		timeout.promise.whenAvailable(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Runs task on the timer thread after the given delay unless the returned
+	 * timeout is cancelled first. Tasks should be short since they hold up the
+	 * timer.
+	 *
+	 * @param task
+	 * @param delay
+	 * @param unit
+	 * @return
+	 */
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		if (task == null)
+			throw new PromiseException("Task can't be null");
+		if (stopped)
+			throw new PromiseException("Timer has been stopped");
+		Timeout timeout = new Timeout(null, task,
+				System.nanoTime() - startTime + unit.toNanos(delay));
+		incoming.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Number of timeouts in the wheel as of the last tick, including cancelled
+	 * ones which haven't been dropped yet
+	 *
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Stops the timer thread. Pending timeouts won't fire.
+	 */
+	public void stop() {
+		stopped = true;
+		LockSupport.unpark(thread);
+	}
+
+	protected void run() {
+		long tick = 0;
+		while (!stopped) {
+			long now = waitForTick(tick);
+			if (stopped)
+				break;
+			transfer(tick);
+			expire((int) (tick & mask), now);
+			tick++;
+		}
+	}
+
+	/**
+	 * Sleeps until the end of tick and returns the time relative to the start
+	 */
+	private long waitForTick(long tick) {
+		long end = tickNanos * (tick + 1);
+		for (;;) {
+			long now = System.nanoTime() - startTime;
+			if (now >= end || stopped)
+				return now;
+			LockSupport.parkNanos(this, end - now);
+		}
+	}
+
+	/**
+	 * Moves newly scheduled timeouts into their buckets
+	 */
+	private void transfer(long tick) {
+		Timeout timeout;
+		while ((timeout = incoming.poll()) != null) {
+			if (timeout.state != PENDING)
+				continue;
+			long deadlineTick = Math.max(timeout.deadline / tickNanos, tick);
+			timeout.remainingRounds = (deadlineTick - tick) / buckets.length;
+			int index = (int) (deadlineTick & mask);
+			timeout.next = buckets[index];
+			buckets[index] = timeout;
+			size++;
+		}
+	}
+
+	private void expire(int index, long now) {
+		Timeout pred = null;
+		Timeout timeout = buckets[index];
+		while (timeout != null) {
+			Timeout next = timeout.next;
+			boolean due = timeout.remainingRounds <= 0
+					&& timeout.deadline <= now;
+			if (timeout.state != PENDING || due) {
+				if (pred == null)
+					buckets[index] = next;
+				else
+					pred.next = next;
+				timeout.next = null;
+				size--;
+				if (due)
+					fire(timeout);
+			} else {
+				timeout.remainingRounds--;
+				pred = timeout;
+			}
+			timeout = next;
+		}
+	}
+
+	private void fire(Timeout timeout) {
+		try {
+			timeout.expire();
+		} catch (RuntimeException e) {
+			// a failing callback must not stop the timer
+			Thread.UncaughtExceptionHandler handler = Thread.currentThread()
+					.getUncaughtExceptionHandler();
+			handler.uncaughtException(Thread.currentThread(), e);
+		}
+	}
+}
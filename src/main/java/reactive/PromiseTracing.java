@@ -0,0 +1,335 @@
+package reactive;
+
+import java.io.PrintStream;
+import java.lang.StackWalker.StackFrame;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import reactive.exceptions.PromiseException;
+
+/**
+ * Samples chains built with {@link Promise#invokeWhenAvailable(FunctionPointer)}
+ * and records where each link was created, which link it follows, which
+ * function pointer it invokes and when it was invoked and resolved. The
+ * async stack of a traced promise which doesn't resolve shows what it is
+ * waiting for, down to the function pointer or legacy callback which hasn't
+ * come back yet, see {@link #getAsyncStackTrace(Promise)}.
+ *
+ * One in {@link #setSampleRate(int)} links is sampled as it is created. Links
+ * chained to a traced link, and links created while a traced link invokes its
+ * function pointer, are traced too, so a sampled request is traced from there
+ * on. While tracing is off promises pay a single branch per link; while it is
+ * on, links which aren't traced additionally pay a thread local lookup.
+ *
+ * Traced links are listed with {@link #getPendingChains()} until they
+ * resolve, so that stuck ones can be found. The list holds them weakly, so a
+ * chain which nothing refers to anymore drops out of it, and it holds at most
+ * {@value #MAX_PENDING}; beyond that the oldest half is dropped. Sampling
+ * carries on either way.
+ *
+ * @author george georgovassilis
+ *
+ */
+public class PromiseTracing {
+
+	/**
+	 * Maximum number of traced links listed as pending
+	 */
+	public final static int MAX_PENDING = 10000;
+
+	/**
+	 * How many frames of the creation site of a link are recorded
+	 */
+	protected final static int MAX_SITE_FRAMES = 8;
+
+	/**
+	 * How many promises an async stack trace follows
+	 */
+	protected final static int MAX_DEPTH = 64;
+
+	static volatile int sampleRate;
+
+	private final static Set<Pending> pending = ConcurrentHashMap.newKeySet();
+
+	private final static ReferenceQueue<PromiseImpl<?>> collected = new ReferenceQueue<PromiseImpl<?>>();
+
+	/**
+	 * Entry of a traced link in the pending list
+	 */
+	private final static class Pending extends WeakReference<PromiseImpl<?>> {
+		final long created;
+
+		Pending(PromiseImpl<?> link, long created) {
+			super(link, collected);
+			this.created = created;
+		}
+	}
+
+	/**
+	 * What is known about a traced link. The parent is the link it is chained
+	 * to or whose function pointer created it.
+	 */
+	final static class Trace {
+		final Trace parent;
+		final FunctionPointer<?> pointer;
+		final StackTraceElement[] site;
+		final long created = System.nanoTime();
+		volatile long invoked;
+		volatile long resolved;
+		Pending pending;
+
+		Trace(Trace parent, FunctionPointer<?> pointer, StackTraceElement[] site) {
+			this.parent = parent;
+			this.pointer = pointer;
+			this.site = site;
+		}
+	}
+
+	/**
+	 * Per thread sampling state
+	 */
+	private final static class Sampler {
+		// the link whose function pointer is running on this thread
+		Trace current;
+		// links until the next sample, 0 before the first one
+		int countdown;
+
+		boolean sample(int rate) {
+			// start threads at different points so they don't sample in
+			// lockstep
+			if (countdown == 0 || countdown > rate)
+				countdown = ThreadLocalRandom.current().nextInt(rate) + 1;
+			if (--countdown > 0)
+				return false;
+			countdown = rate;
+			return true;
+		}
+	}
+
+	private final static StackWalker WALKER = StackWalker.getInstance();
+
+	private final static ThreadLocal<Sampler> SAMPLER = new ThreadLocal<Sampler>() {
+		@Override
+		protected Sampler initialValue() {
+			return new Sampler();
+		}
+	};
+
+	/**
+	 * Traces one in oneIn chains; 0 switches tracing off, 1 traces every
+	 * chain
+	 *
+	 * @param oneIn
+	 */
+	public static void setSampleRate(int oneIn) {
+		if (oneIn < 0)
+			throw new PromiseException("Sample rate can't be negative");
+		sampleRate = oneIn;
+	}
+
+	public static int getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * Returns the traced links which haven't been resolved yet, the oldest
+	 * first
+	 *
+	 * @return
+	 */
+	public static List<Promise<?>> getPendingChains() {
+		List<Promise<?>> promises = new ArrayList<Promise<?>>();
+		for (Pending entry : oldestFirst()) {
+			PromiseImpl<?> promise = entry.get();
+			if (promise != null)
+				promises.add(promise);
+		}
+		return promises;
+	}
+
+	/**
+	 * Prints the async stack traces of the traced links which have been
+	 * pending for longer than age
+	 *
+	 * @param out
+	 * @param age
+	 * @param unit
+	 */
+	public static void printPendingChains(PrintStream out, long age,
+			TimeUnit unit) {
+		long now = System.nanoTime();
+		for (Promise<?> promise : getPendingChains()) {
+			Trace trace = ((PromiseImpl<?>) promise).getTrace();
+			if (now - trace.created >= unit.toNanos(age))
+				out.println(getAsyncStackTrace(promise));
+		}
+	}
+
+	/**
+	 * Describes promise and, as long as it is pending, what it is waiting for:
+	 * the link it is chained to or the promise its function pointer returned,
+	 * and so on. Links which have been traced show their function pointer,
+	 * creation site and timestamps; other promises only their name.
+	 *
+	 * @param promise
+	 * @return
+	 */
+	public static String getAsyncStackTrace(Promise<?> promise) {
+		long now = System.nanoTime();
+		StringBuilder sb = new StringBuilder();
+		int depth = 0;
+		for (Promise<?> p = promise; p != null; depth++) {
+			if (depth == MAX_DEPTH) {
+				sb.append("\t...\n");
+				break;
+			}
+			sb.append(depth == 0 ? "" : "waiting for ").append(p)
+					.append('\n');
+			if (!(p instanceof PromiseImpl))
+				break;
+			PromiseImpl<?> impl = (PromiseImpl<?>) p;
+			Trace trace = impl.getTrace();
+			if (trace != null)
+				describe(sb, trace, now);
+			p = p.isAvailable() ? null : impl.getAwaited();
+		}
+		return sb.toString();
+	}
+
+	private static void describe(StringBuilder sb, Trace trace, long now) {
+		sb.append("\tinvokes ").append(describe(trace.pointer)).append(", created ")
+				.append(millis(now - trace.created)).append(" ago");
+		long invoked = trace.invoked;
+		if (invoked != 0)
+			sb.append(", invoked after ").append(
+					millis(invoked - trace.created));
+		long resolved = trace.resolved;
+		if (resolved != 0)
+			sb.append(", resolved after ").append(
+					millis(resolved - trace.created));
+		if (trace.parent != null)
+			sb.append(", for ").append(describe(trace.parent.pointer));
+		sb.append('\n');
+		for (StackTraceElement frame : trace.site)
+			sb.append("\t\tat ").append(frame).append('\n');
+	}
+
+	private static String describe(FunctionPointer<?> pointer) {
+		Object target = pointer.getTarget();
+		Method method = pointer.getMethod();
+		if (target == null || method == null)
+			return pointer.toString();
+		return target.getClass().getName() + "." + method.getName();
+	}
+
+	private static String millis(long nanos) {
+		return String.format("%.3f ms", nanos / 1e6);
+	}
+
+	/**
+	 * Called for every link while tracing is on. Returns the trace of link,
+	 * which pointer invokes once source resolves, or null if it isn't traced.
+	 */
+	static Trace sample(PromiseImpl<?> source, FunctionPointer<?> pointer) {
+		Trace parent = source.getTrace();
+		if (parent == null) {
+			int rate = sampleRate;
+			if (rate == 0)
+				return null;
+			Sampler sampler = SAMPLER.get();
+			parent = sampler.current;
+			if (parent == null && !sampler.sample(rate))
+				return null;
+		}
+		return new Trace(parent, pointer, site());
+	}
+
+	/**
+	 * Called when a traced link has been created
+	 */
+	static void created(PromiseImpl<?> link) {
+		Trace trace = link.getTrace();
+		trace.pending = new Pending(link, trace.created);
+		pending.add(trace.pending);
+		Reference<?> gone;
+		while ((gone = collected.poll()) != null)
+			pending.remove(gone);
+		if (pending.size() > MAX_PENDING)
+			trim();
+	}
+
+	/**
+	 * Drops the oldest half of the pending list
+	 */
+	private static synchronized void trim() {
+		List<Pending> entries = oldestFirst();
+		if (entries.size() <= MAX_PENDING)
+			return;
+		for (Pending entry : entries.subList(0, entries.size() / 2))
+			pending.remove(entry);
+	}
+
+	private static List<Pending> oldestFirst() {
+		List<Pending> entries = new ArrayList<Pending>(pending);
+		Collections.sort(entries, new Comparator<Pending>() {
+
+			@Override
+			public int compare(Pending a, Pending b) {
+				return Long.compare(a.created, b.created);
+			}
+		});
+		return entries;
+	}
+
+	/**
+	 * Invokes the function pointer of a traced link. Chains built meanwhile on
+	 * this thread are traced as its children.
+	 */
+	static <R> Promise<R> invoke(Trace trace, FunctionPointer<R> pointer) {
+		trace.invoked = System.nanoTime();
+		Sampler sampler = SAMPLER.get();
+		Trace caller = sampler.current;
+		sampler.current = trace;
+		try {
+			return PromiseImpl.invoke(pointer);
+		} finally {
+			sampler.current = caller;
+		}
+	}
+
+	/**
+	 * Called when a traced link resolves, fails or is cancelled
+	 */
+	static void resolved(PromiseImpl<?> link) {
+		Trace trace = link.getTrace();
+		trace.resolved = System.nanoTime();
+		pending.remove(trace.pending);
+	}
+
+	/**
+	 * Captures the frames which created a link. The walk is lazy, so only the
+	 * internal frames and the recorded ones are materialised.
+	 */
+	private static StackTraceElement[] site() {
+		return WALKER.walk(frames -> frames.dropWhile(PromiseTracing::isInternal)
+				.limit(MAX_SITE_FRAMES).map(StackFrame::toStackTraceElement)
+				.toArray(StackTraceElement[]::new));
+	}
+
+	private static boolean isInternal(StackFrame frame) {
+		String className = frame.getClassName();
+		return className.startsWith(PromiseImpl.class.getName())
+				|| className.equals(PromiseTracing.class.getName())
+				|| className.equals(ResolvedPromise.class.getName());
+	}
+}
@@ -0,0 +1,401 @@
+package reactive;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import reactive.exceptions.PromiseException;
+
+/**
+ * Combinators which join several promises into one. Each input promise gets
+ * one callback; the combined promise is resolved by whichever callback
+ * completes the join, which is decided by a single atomic counter. Once the
+ * combined promise is resolved the remaining callbacks are removed from the
+ * inputs, so they don't pile up on slow promises. Cancelling the combined
+ * promise removes the callbacks as well and cancels inputs which nothing else
+ * waits for.
+ *
+ * @author george georgovassilis
+ *
+ */
+public class Promises {
+
+	/**
+	 * Join state shared by the callbacks registered with the input promises
+	 *
+	 * @param <T>
+	 *            type of the inputs
+	 * @param <R>
+	 *            type of the combined promise
+	 */
+	private static abstract class Join<T, R> {
+
+		@SuppressWarnings("rawtypes")
+		private final static AtomicIntegerFieldUpdater<Join> SUCCEEDED = AtomicIntegerFieldUpdater
+				.newUpdater(Join.class, "succeeded");
+
+		@SuppressWarnings("rawtypes")
+		private final static AtomicIntegerFieldUpdater<Join> FAILED = AtomicIntegerFieldUpdater
+				.newUpdater(Join.class, "failed");
+
+		@SuppressWarnings("rawtypes")
+		private final static AtomicIntegerFieldUpdater<Join> DONE = AtomicIntegerFieldUpdater
+				.newUpdater(Join.class, "done");
+
+		final List<Promise<T>> inputs;
+		final Slot<T>[] slots;
+		final Promise<R> result;
+		private volatile int succeeded;
+		private volatile int failed;
+		private volatile int done;
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		Join(List<Promise<T>> inputs, String name) {
+			this.inputs = inputs;
+			this.slots = new Slot[inputs.size()];
+			this.result = new PromiseImpl<R>(name) {
+
+				@Override
+				protected void releaseUpstream(Collection<Promise<?>> upstream) {
+					cancelled();
+					for (int i = 0; i < slots.length; i++)
+						if (slots[i] != null)
+							release(inputs.get(i), slots[i], upstream);
+				}
+			};
+		}
+
+		/**
+		 * Stops the join when the combined promise is cancelled
+		 */
+		void cancelled() {
+			DONE.set(this, 1);
+		}
+
+		Promise<R> start() {
+			for (int i = 0; i < slots.length; i++)
+				slots[i] = new Slot<T>(this, i);
+			for (int i = 0; i < slots.length && done == 0; i++) {
+				inputs.get(i).whenAvailable(slots[i]);
+				// the join may have finished concurrently and missed this slot
+				if (done != 0)
+					inputs.get(i).removeCallback(slots[i]);
+			}
+			return result;
+		}
+
+		/**
+		 * Returns how many inputs had succeeded including this one
+		 */
+		int succeeded() {
+			return SUCCEEDED.incrementAndGet(this);
+		}
+
+		/**
+		 * Returns how many inputs had failed including this one
+		 */
+		int failed() {
+			return FAILED.incrementAndGet(this);
+		}
+
+		/**
+		 * Claims the right to resolve the combined promise and removes all
+		 * callbacks from the inputs.
+		 */
+		boolean finish() {
+			if (!DONE.compareAndSet(this, 0, 1))
+				return false;
+			for (int i = 0; i < slots.length; i++)
+				if (slots[i] != null)
+					inputs.get(i).removeCallback(slots[i]);
+			return true;
+		}
+
+		void resolve(R value) {
+			if (finish())
+				result.set(value);
+		}
+
+		void reject(Exception e) {
+			if (finish())
+				result.fail(e);
+		}
+
+		abstract void onValue(int index, T value);
+
+		abstract void onError(int index, Exception e);
+	}
+
+	/**
+	 * Callback registered with one input
+	 */
+	private final static class Slot<T> implements Callback<T> {
+		final Join<T, ?> join;
+		final int index;
+
+		Slot(Join<T, ?> join, int index) {
+			this.join = join;
+			this.index = index;
+		}
+
+		@Override
+		public void set(T value) {
+			join.onValue(index, value);
+		}
+
+		@Override
+		public void fail(Exception e) {
+			join.onError(index, e);
+		}
+	}
+
+	private final static class All<T> extends Join<T, List<T>> {
+		final Object[] values;
+
+		All(List<Promise<T>> inputs) {
+			super(inputs, "Promises.all");
+			values = new Object[inputs.size()];
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		void onValue(int index, T value) {
+			values[index] = value;
+			if (succeeded() == values.length)
+				resolve((List<T>) Arrays.asList(values));
+		}
+
+		@Override
+		void onError(int index, Exception e) {
+			reject(e);
+		}
+	}
+
+	private final static class Any<T> extends Join<T, T> {
+
+		Any(List<Promise<T>> inputs) {
+			super(inputs, "Promises.any");
+		}
+
+		@Override
+		void onValue(int index, T value) {
+			resolve(value);
+		}
+
+		@Override
+		void onError(int index, Exception e) {
+			if (failed() == slots.length)
+				reject(e);
+		}
+	}
+
+	private final static class Race<T> extends Join<T, T> {
+
+		Race(List<Promise<T>> inputs) {
+			super(inputs, "Promises.race");
+		}
+
+		@Override
+		void onValue(int index, T value) {
+			resolve(value);
+		}
+
+		@Override
+		void onError(int index, Exception e) {
+			reject(e);
+		}
+	}
+
+	private final static class Quorum<T> extends Join<T, List<T>> {
+
+		@SuppressWarnings("rawtypes")
+		private final static AtomicIntegerFieldUpdater<Quorum> STORED = AtomicIntegerFieldUpdater
+				.newUpdater(Quorum.class, "stored");
+
+		final Object[] values;
+		private volatile int stored;
+
+		Quorum(int k, List<Promise<T>> inputs) {
+			super(inputs, "Promises.quorum");
+			values = new Object[k];
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		void onValue(int index, T value) {
+			int position = succeeded() - 1;
+			if (position >= values.length)
+				return;
+			values[position] = value;
+			// the k-th success may be counted before earlier ones have
+			// stored their value, so completion is counted separately
+			if (stored() == values.length)
+				resolve((List<T>) Arrays.asList(values));
+		}
+
+		@Override
+		void onError(int index, Exception e) {
+			if (failed() == slots.length - values.length + 1)
+				reject(e);
+		}
+
+		int stored() {
+			return STORED.incrementAndGet(this);
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private final static Promise NULL = new ResolvedPromise<Object>(null, null);
+
+	private final static Promise<Boolean> TRUE = new ResolvedPromise<Boolean>(
+			Boolean.TRUE, null);
+
+	private final static Promise<Boolean> FALSE = new ResolvedPromise<Boolean>(
+			Boolean.FALSE, null);
+
+	/**
+	 * Returns an immutable promise which is resolved with value. Callbacks run
+	 * right away, and null, {@link Boolean#TRUE} and {@link Boolean#FALSE}
+	 * share one instance each, so returning a known result doesn't allocate.
+	 * Promises for other values can be kept and returned again, e.g. for
+	 * cached objects.
+	 *
+	 * @param value
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> Promise<T> resolved(T value) {
+		if (value == null)
+			return NULL;
+		if (value == Boolean.TRUE)
+			return (Promise<T>) TRUE;
+		if (value == Boolean.FALSE)
+			return (Promise<T>) FALSE;
+		return new ResolvedPromise<T>(value, null);
+	}
+
+	/**
+	 * Returns an immutable promise which has failed with error
+	 *
+	 * @param error
+	 * @return
+	 */
+	public static <T> Promise<T> failed(Exception error) {
+		if (error == null)
+			throw new PromiseException("Error can't be null");
+		return new ResolvedPromise<T>(null, error);
+	}
+
+	protected static <T> List<Promise<T>> toList(
+			Collection<? extends Promise<T>> promises) {
+		if (promises == null)
+			throw new PromiseException("Promises can't be null");
+		return new ArrayList<Promise<T>>(promises);
+	}
+
+	/**
+	 * Returns a promise which resolves with the values of all promises, in
+	 * the same order, once all have resolved. Fails as soon as any of them
+	 * fails.
+	 *
+	 * @param promises
+	 * @return
+	 */
+	public static <T> Promise<List<T>> all(
+			Collection<? extends Promise<T>> promises) {
+		List<Promise<T>> inputs = toList(promises);
+		if (inputs.isEmpty())
+			return resolved(Collections.<T> emptyList());
+		return new All<T>(inputs).start();
+	}
+
+	@SafeVarargs
+	public static <T> Promise<List<T>> all(Promise<T>... promises) {
+		return all(Arrays.asList(promises));
+	}
+
+	/**
+	 * Returns a promise which resolves with the value of the first promise
+	 * that resolves successfully. Fails with the last error if all of them
+	 * fail.
+	 *
+	 * @param promises
+	 * @return
+	 */
+	public static <T> Promise<T> any(Collection<? extends Promise<T>> promises) {
+		List<Promise<T>> inputs = toList(promises);
+		if (inputs.isEmpty())
+			throw new PromiseException("any() needs at least one promise");
+		return new Any<T>(inputs).start();
+	}
+
+	@SafeVarargs
+	public static <T> Promise<T> any(Promise<T>... promises) {
+		return any(Arrays.asList(promises));
+	}
+
+	/**
+	 * Returns a promise which resolves or fails like the first of the promises
+	 * which resolves or fails.
+	 *
+	 * @param promises
+	 * @return
+	 */
+	public static <T> Promise<T> race(Collection<? extends Promise<T>> promises) {
+		List<Promise<T>> inputs = toList(promises);
+		if (inputs.isEmpty())
+			throw new PromiseException("race() needs at least one promise");
+		return new Race<T>(inputs).start();
+	}
+
+	@SafeVarargs
+	public static <T> Promise<T> race(Promise<T>... promises) {
+		return race(Arrays.asList(promises));
+	}
+
+	/**
+	 * Returns a promise which resolves with the values of the first k promises
+	 * that resolve successfully, in the order in which they resolved. Fails
+	 * once so many promises have failed that k successes are no longer
+	 * possible.
+	 *
+	 * @param k
+	 * @param promises
+	 * @return
+	 */
+	public static <T> Promise<List<T>> quorum(int k,
+			Collection<? extends Promise<T>> promises) {
+		List<Promise<T>> inputs = toList(promises);
+		if (k < 0 || k > inputs.size())
+			throw new PromiseException("Can't wait for " + k + " out of "
+					+ inputs.size() + " promises");
+		if (k == 0)
+			return resolved(Collections.<T> emptyList());
+		return new Quorum<T>(k, inputs).start();
+	}
+
+	@SafeVarargs
+	public static <T> Promise<List<T>> quorum(int k, Promise<T>... promises) {
+		return quorum(k, Arrays.asList(promises));
+	}
+
+	/**
+	 * Fails promise with a {@link reactive.exceptions.PromiseTimeoutException}
+	 * unless it is resolved within the given delay. Uses the shared
+	 * {@link PromiseTimer}.
+	 *
+	 * @param promise
+	 * @param delay
+	 * @param unit
+	 * @return the same promise
+	 */
+	public static <T> Promise<T> timeout(Promise<T> promise, long delay,
+			TimeUnit unit) {
+		PromiseTimer.getDefault().timeout(promise, delay, unit);
+		return promise;
+	}
+}
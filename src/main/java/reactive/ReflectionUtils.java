@@ -3,7 +3,11 @@ package reactive;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Various reflection related utilities
@@ -13,6 +17,42 @@ import java.util.List;
 
 public class ReflectionUtils {
 
+	private final static ConcurrentMap<Class<?>, Method[]> methods = new ConcurrentHashMap<Class<?>, Method[]>();
+
+	/**
+	 * Returns the public (including inherited) and declared methods of c. The
+	 * result is cached and must not be modified.
+	 * @param c
+	 * @return
+	 */
+	public static Method[] getMethods(Class<?> c) {
+		Method[] result = methods.get(c);
+		if (result == null) {
+			List<Method> list = new ArrayList<Method>();
+			list.addAll(Arrays.asList(c.getMethods()));
+			list.addAll(Arrays.asList(c.getDeclaredMethods()));
+			result = list.toArray(new Method[list.size()]);
+			methods.putIfAbsent(c, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Determines whether a method with the provided parameter types can be invoked with
+	 * arguments of the provided argument types. Null argument types match any parameter type.
+	 * @param paramTypes
+	 * @param argumentTypes
+	 * @return
+	 */
+	protected static boolean accepts(Class<?>[] paramTypes, Class<?>[] argumentTypes) {
+		if (paramTypes.length != argumentTypes.length)
+			return false;
+		for (int i = 0; i < paramTypes.length; i++)
+			if (argumentTypes[i] != null && !paramTypes[i].isAssignableFrom(argumentTypes[i]))
+				return false;
+		return true;
+	}
+
 	/**
 	 * Returns the types of the supplied objects. Nulls we be nulls.
 	 * @param args
@@ -40,23 +80,12 @@ public class ReflectionUtils {
 			Class<?> returnType, Class<?>[] argumentTypes) {
 		if (c == null)
 			return null;
-		List<Method> methods = new ArrayList<Method>();
-		methods.addAll(Arrays.asList(c.getMethods()));
-		methods.addAll(Arrays.asList(c.getDeclaredMethods()));
-		for (Method m : methods) {
+		for (Method m : getMethods(c)) {
 			if (!m.getName().equals(methodName))
 				continue;
 			if (!returnType.isAssignableFrom(m.getReturnType()))
 				continue;
-			Class<?>[] paramTypes = m.getParameterTypes();
-			if (paramTypes.length != argumentTypes.length)
-				continue;
-			boolean typeMatches = true;
-			for (int i = 0; i < paramTypes.length; i++)
-				typeMatches = typeMatches
-						&& (argumentTypes[i] == null || paramTypes[i]
-								.isAssignableFrom(argumentTypes[i]));
-			if (!typeMatches)
+			if (!accepts(m.getParameterTypes(), argumentTypes))
 				continue;
 			return m;
 		}
@@ -64,6 +93,25 @@ public class ReflectionUtils {
 				argumentTypes);
 	}
 
+	/**
+	 * Returns the names of all methods on the provided class "c" (or any super class)
+	 * with the specified "returnType" and the specified "argumentTypes" (or assignables)
+	 * @param c
+	 * @param returnType
+	 * @param argumentTypes
+	 * @return
+	 */
+	public static Set<String> findMethodNames(Class<?> c, Class<?> returnType,
+			Class<?>[] argumentTypes) {
+		Set<String> names = new HashSet<String>();
+		for (; c != null; c = c.getSuperclass())
+			for (Method m : getMethods(c))
+				if (returnType.isAssignableFrom(m.getReturnType())
+						&& accepts(m.getParameterTypes(), argumentTypes))
+					names.add(m.getName());
+		return names;
+	}
+
 	/**
 	 * Invoke a method of the provided target with the provided arguments. Wraps any exception in a {@link RuntimeException}
 	 * @param method
@@ -0,0 +1,160 @@
+package reactive;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import reactive.exceptions.AlreadyResolvedException;
+import reactive.exceptions.PromiseException;
+import reactive.jfr.PointerInvocationEvent;
+
+/**
+ * A promise which is resolved or failed from the start, returned by
+ * {@link Promises#resolved(Object)} and {@link Promises#failed(Exception)}.
+ * It is immutable, so it can be shared freely and needs no synchronization: it
+ * holds nothing but its value or error. Callbacks and function pointers are
+ * invoked right away on the calling thread without allocating anything,
+ * unless {@link PromiseImpl#getDefaultExecutor()} or the given executor says
+ * otherwise, in which case this promise behaves like a resolved
+ * {@link PromiseImpl}.
+ *
+ * @author george georgovassilis
+ *
+ * @param <T>
+ */
+final class ResolvedPromise<T> implements Promise<T> {
+
+	private final T value;
+	private final Exception error;
+
+	ResolvedPromise(T value, Exception error) {
+		this.value = value;
+		this.error = error;
+	}
+
+	@Override
+	public Exception getError() {
+		return error;
+	}
+
+	@Override
+	public T get() throws PromiseException {
+		return value;
+	}
+
+	@Override
+	public void set(T value) throws PromiseException {
+		throw new AlreadyResolvedException("Promise has already been resolved: "
+				+ this);
+	}
+
+	@Override
+	public void fail(Exception e) throws PromiseException {
+		throw new AlreadyResolvedException("Promise has already been resolved: "
+				+ this);
+	}
+
+	@Override
+	public void whenAvailable(Callback<T> callback) {
+		whenAvailable(callback, PromiseImpl.getDefaultExecutor());
+	}
+
+	@Override
+	public void whenAvailable(final Callback<T> callback, Executor executor) {
+		if (executor == null)
+			throw new PromiseException("Executor can't be null");
+		if (executor == PromiseImpl.INLINE) {
+			invoke(callback);
+			return;
+		}
+		executor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				invoke(callback);
+			}
+		});
+	}
+
+	private void invoke(Callback<T> callback) {
+		if (error == null)
+			callback.set(value);
+		else
+			callback.fail(error);
+	}
+
+	/**
+	 * Callbacks are invoked right away, so there is never one to remove
+	 */
+	@Override
+	public boolean removeCallback(Callback<T> callback) {
+		return false;
+	}
+
+	@Override
+	public boolean cancel() {
+		return false;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return false;
+	}
+
+	@Override
+	public <R> Promise<R> invokeWhenAvailable(FunctionPointer<R> pointer) {
+		return invokeWhenAvailable(pointer, PromiseImpl.getDefaultExecutor());
+	}
+
+	/**
+	 * Returns what the pointer returns when it is invoked on the calling
+	 * thread, otherwise the same as a resolved {@link PromiseImpl} would. A
+	 * failed promise returns itself without invoking the pointer.
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public <R> Promise<R> invokeWhenAvailable(FunctionPointer<R> pointer,
+			Executor executor) {
+		if (error != null)
+			return (Promise<R>) this;
+		if (executor != PromiseImpl.INLINE)
+			return toPromiseImpl().invokeWhenAvailable(pointer, executor);
+		if (pointer.isAvailable())
+			return pointer;
+		PointerInvocationEvent event = new PointerInvocationEvent();
+		event.begin();
+		try {
+			return (Promise<R>) pointer.invoke();
+		} finally {
+			event.end(pointer);
+		}
+	}
+
+	private PromiseImpl<T> toPromiseImpl() {
+		PromiseImpl<T> promise = new PromiseImpl<T>(toString());
+		if (error == null)
+			promise.set(value);
+		else
+			promise.fail(error);
+		return promise;
+	}
+
+	@Override
+	public boolean isAvailable() {
+		return true;
+	}
+
+	@Override
+	public void waitForResolution() {
+	}
+
+	@Override
+	public boolean waitForResolution(long timeout, TimeUnit unit) {
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return error == null ? "ResolvedPromise " + value : "ResolvedPromise "
+				+ error;
+	}
+}
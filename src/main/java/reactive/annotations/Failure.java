@@ -0,0 +1,33 @@
+package reactive.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import reactive.CallbackAdapter;
+
+/**
+ * Marks a single argument method of a legacy callback interface which reports
+ * an error with something other than a {@link Throwable}, e.g. a message or an
+ * error code. {@link CallbackAdapter} and the adapters generated for
+ * {@link GenerateAdapter} fail the promise when such a method is called,
+ * i.e.:
+ * 
+ * <pre>
+ * interface Callback {
+ * 	void onSuccess(User user);
+ * 
+ * 	&#064;Failure
+ * 	void onError(String message);
+ * }
+ * </pre>
+ * 
+ * @author george georgovassilis
+ *
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Failure {
+
+}
@@ -0,0 +1,31 @@
+package reactive.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import reactive.CallbackAdapter;
+import reactive.Promise;
+
+/**
+ * Marks a legacy callback interface. At build time a class named after the
+ * interface (and its enclosing types) with an "Adapter" suffix is generated
+ * which implements the interface and resolves a {@link Promise}. Single
+ * argument methods fail or set the promise by the same rule as
+ * {@link CallbackAdapter#isFailure(boolean, boolean)}. The generated adapter does the job of
+ * {@link CallbackAdapter#callback(Class, Promise)} without proxies or
+ * reflection, i.e.:
+ * 
+ * <pre>
+ * userService.getUser(login, password, new UserServiceCallbackAdapter&lt;User&gt;(promise));
+ * </pre>
+ * 
+ * @author george georgovassilis
+ *
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface GenerateAdapter {
+
+}
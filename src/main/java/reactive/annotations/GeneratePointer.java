@@ -0,0 +1,34 @@
+package reactive.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method which returns a function pointer to itself. At build time a
+ * class named after the enclosing class with a "Pointers" suffix is generated.
+ * It has a static factory method with the name of the annotated method which
+ * returns a {@link reactive.AbstractFunctionPointer} subclass. That subclass stores the
+ * arguments in fields and re-invokes the method directly, without looking at
+ * the stack and without reflection, i.e.:
+ * 
+ * <pre>
+ * &#064;GeneratePointer
+ * FunctionPointer&lt;Void&gt; showUser(Promise&lt;User&gt; user) {
+ * 	...
+ * 	return UserControllerPointers.showUser(this, user);
+ * }
+ * </pre>
+ * 
+ * The method must not be private, static or generic and must return a
+ * supertype of {@link reactive.AbstractFunctionPointer}.
+ * 
+ * @author george georgovassilis
+ *
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.METHOD)
+public @interface GeneratePointer {
+
+}
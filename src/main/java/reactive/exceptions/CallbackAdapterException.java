@@ -13,4 +13,8 @@ public class CallbackAdapterException extends PromiseException{
 		super(reason);
 	}
 
+	public CallbackAdapterException(Throwable cause) {
+		super(cause);
+	}
+
 }
@@ -0,0 +1,14 @@
+package reactive.exceptions;
+
+/**
+ * Error of a promise which has been cancelled
+ * @author george georgovassilis
+ *
+ */
+public class PromiseCancelledException extends PromiseException{
+
+	public PromiseCancelledException(String reason) {
+		super(reason);
+	}
+
+}
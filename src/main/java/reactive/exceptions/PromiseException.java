@@ -11,4 +11,8 @@ public class PromiseException extends RuntimeException{
 		super(reason);
 	}
 
+	public PromiseException(Throwable cause){
+		super(cause);
+	}
+
 }
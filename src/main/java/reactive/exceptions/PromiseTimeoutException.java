@@ -0,0 +1,14 @@
+package reactive.exceptions;
+
+/**
+ * Fails a promise which wasn't resolved before its deadline
+ * @author george georgovassilis
+ *
+ */
+public class PromiseTimeoutException extends PromiseException{
+
+	public PromiseTimeoutException(String reason) {
+		super(reason);
+	}
+
+}
@@ -0,0 +1,44 @@
+package reactive.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import reactive.PromiseImpl;
+
+/**
+ * A callback ran because the promise it was registered with resolved
+ *
+ * @author george georgovassilis
+ *
+ */
+@Name("reactive.Callback")
+@Label("Promise Callback")
+@Category("Reactive")
+@Description("A callback of a resolved promise ran")
+@StackTrace(false)
+public class CallbackEvent extends jdk.jfr.Event {
+
+	@Label("Promise")
+	String promise;
+
+	@Label("Callback Class")
+	Class<?> callbackClass;
+
+	/**
+	 * Commits the event if it is enabled and lasted longer than the
+	 * recording's threshold
+	 *
+	 * @param promise
+	 * @param callback
+	 */
+	public void end(PromiseImpl<?> promise, Object callback) {
+		if (!shouldCommit())
+			return;
+		this.promise = promise.getName();
+		this.callbackClass = callback.getClass();
+		commit();
+	}
+}
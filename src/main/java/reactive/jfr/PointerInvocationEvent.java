@@ -0,0 +1,49 @@
+package reactive.jfr;
+
+import java.lang.reflect.Method;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import reactive.FunctionPointer;
+
+/**
+ * A function pointer's method ran because the promise it was chained to
+ * resolved. The event lasts until the method returns, not until the promise
+ * it returned resolves.
+ *
+ * @author george georgovassilis
+ *
+ */
+@Name("reactive.PointerInvocation")
+@Label("Function Pointer Invocation")
+@Category("Reactive")
+@Description("invokeWhenAvailable ran the method of a function pointer")
+@StackTrace(false)
+public class PointerInvocationEvent extends jdk.jfr.Event {
+
+	@Label("Target Class")
+	Class<?> targetClass;
+
+	@Label("Method")
+	String method;
+
+	/**
+	 * Commits the event if it is enabled and lasted longer than the
+	 * recording's threshold
+	 *
+	 * @param pointer
+	 */
+	public void end(FunctionPointer<?> pointer) {
+		if (!shouldCommit())
+			return;
+		Object target = pointer.getTarget();
+		this.targetClass = target == null ? null : target.getClass();
+		Method m = pointer.getMethod();
+		this.method = m == null ? null : m.getName();
+		commit();
+	}
+}
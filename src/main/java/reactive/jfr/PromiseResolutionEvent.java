@@ -0,0 +1,46 @@
+package reactive.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import reactive.PromiseImpl;
+
+/**
+ * A promise was resolved, failed or cancelled. The event lasts while the
+ * resolving thread runs the promise's callbacks; with trampolined resolution
+ * that doesn't include callbacks of promises which they resolved in turn.
+ *
+ * @author george georgovassilis
+ *
+ */
+@Name("reactive.PromiseResolution")
+@Label("Promise Resolution")
+@Category("Reactive")
+@Description("A promise was resolved and ran its callbacks")
+@StackTrace(false)
+public class PromiseResolutionEvent extends jdk.jfr.Event {
+
+	@Label("Promise")
+	String promise;
+
+	@Label("Outcome")
+	String outcome;
+
+	/**
+	 * Commits the event if it is enabled and lasted longer than the
+	 * recording's threshold
+	 *
+	 * @param promise
+	 * @param outcome
+	 */
+	public void end(PromiseImpl<?> promise, String outcome) {
+		if (!shouldCommit())
+			return;
+		this.promise = promise.getName();
+		this.outcome = outcome;
+		commit();
+	}
+}
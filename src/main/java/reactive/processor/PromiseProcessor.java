@@ -0,0 +1,366 @@
+package reactive.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.TypeParameterElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic.Kind;
+
+import reactive.AbstractFunctionPointer;
+import reactive.CallbackAdapter;
+import reactive.annotations.Failure;
+import reactive.annotations.GenerateAdapter;
+import reactive.annotations.GeneratePointer;
+
+/**
+ * Generates function pointers for methods annotated with
+ * {@link GeneratePointer} and promise adapters for callback interfaces
+ * annotated with {@link GenerateAdapter}. The generated code invokes methods
+ * directly, so at runtime neither reflection nor proxies are involved.
+ *
+ * The main sources of this project are compiled without annotation processing
+ * (the processor can't run while it's being compiled); any project which has
+ * this library on its class path picks the processor up automatically.
+ *
+ * @author george georgovassilis
+ *
+ */
+public class PromiseProcessor extends AbstractProcessor {
+
+	@Override
+	public Set<String> getSupportedAnnotationTypes() {
+		Set<String> types = new HashSet<String>();
+		types.add(GeneratePointer.class.getCanonicalName());
+		types.add(GenerateAdapter.class.getCanonicalName());
+		return types;
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations,
+			RoundEnvironment roundEnv) {
+		Map<TypeElement, List<ExecutableElement>> pointers = new LinkedHashMap<TypeElement, List<ExecutableElement>>();
+		for (ExecutableElement method : ElementFilter.methodsIn(roundEnv
+				.getElementsAnnotatedWith(GeneratePointer.class))) {
+			TypeElement type = (TypeElement) method.getEnclosingElement();
+			List<ExecutableElement> methods = pointers.get(type);
+			if (methods == null) {
+				methods = new ArrayList<ExecutableElement>();
+				pointers.put(type, methods);
+			}
+			methods.add(method);
+		}
+		for (Map.Entry<TypeElement, List<ExecutableElement>> e : pointers
+				.entrySet())
+			generatePointers(e.getKey(), e.getValue());
+		for (TypeElement type : ElementFilter.typesIn(roundEnv
+				.getElementsAnnotatedWith(GenerateAdapter.class)))
+			generateAdapter(type);
+		return true;
+	}
+
+	protected void error(String message, Element element) {
+		processingEnv.getMessager().printMessage(Kind.ERROR, message, element);
+	}
+
+	protected String packageOf(TypeElement type) {
+		PackageElement p = processingEnv.getElementUtils().getPackageOf(type);
+		return p.isUnnamed() ? "" : p.getQualifiedName().toString();
+	}
+
+	/**
+	 * Concatenates the simple names of type and all types it is nested in
+	 */
+	protected String flatName(TypeElement type) {
+		String name = type.getSimpleName().toString();
+		if (type.getNestingKind() == NestingKind.MEMBER)
+			return flatName((TypeElement) type.getEnclosingElement()) + name;
+		return name;
+	}
+
+	protected boolean isPublic(TypeElement type) {
+		for (Element e = type; e instanceof TypeElement; e = e
+				.getEnclosingElement())
+			if (!e.getModifiers().contains(Modifier.PUBLIC)
+					&& e.getEnclosingElement().getKind() != ElementKind.INTERFACE)
+				return false;
+		return true;
+	}
+
+	protected String typeParameters(List<? extends TypeParameterElement> parameters) {
+		if (parameters.isEmpty())
+			return "";
+		StringBuilder sb = new StringBuilder("<");
+		for (TypeParameterElement p : parameters) {
+			if (sb.length() > 1)
+				sb.append(", ");
+			sb.append(p.getSimpleName());
+			String separator = " extends ";
+			for (TypeMirror bound : p.getBounds()) {
+				if ("java.lang.Object".equals(bound.toString()))
+					continue;
+				sb.append(separator).append(bound);
+				separator = " & ";
+			}
+		}
+		return sb.append(">").toString();
+	}
+
+	protected void write(String packageName, String className,
+			Element origin, CharSequence body) {
+		String name = packageName.isEmpty() ? className : packageName + "."
+				+ className;
+		try {
+			Writer writer = processingEnv.getFiler()
+					.createSourceFile(name, origin).openWriter();
+			try {
+				if (!packageName.isEmpty())
+					writer.write("package " + packageName + ";\n\n");
+				writer.write(body.toString());
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			error("Couldn't write " + name + ": " + e, origin);
+		}
+	}
+
+	protected boolean checkPointer(ExecutableElement method) {
+		TypeElement type = (TypeElement) method.getEnclosingElement();
+		Set<Modifier> modifiers = method.getModifiers();
+		if (modifiers.contains(Modifier.PRIVATE)
+				|| modifiers.contains(Modifier.STATIC)) {
+			error("@GeneratePointer methods must not be private or static",
+					method);
+			return false;
+		}
+		if (!method.getTypeParameters().isEmpty()
+				|| !type.getTypeParameters().isEmpty()) {
+			error("@GeneratePointer methods must not be generic or declared by generic types",
+					method);
+			return false;
+		}
+		TypeMirror base = processingEnv.getTypeUtils().erasure(
+				processingEnv.getElementUtils()
+						.getTypeElement(AbstractFunctionPointer.class.getName())
+						.asType());
+		if (!processingEnv.getTypeUtils().isAssignable(base,
+				processingEnv.getTypeUtils().erasure(method.getReturnType()))) {
+			error("@GeneratePointer methods must return a supertype of "
+					+ AbstractFunctionPointer.class.getName(), method);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the type of the value the pointer returned by method resolves
+	 * with, i.e. the type argument of its return type
+	 */
+	protected String valueType(ExecutableElement method) {
+		TypeMirror returnType = method.getReturnType();
+		if (returnType.getKind() == TypeKind.DECLARED) {
+			List<? extends TypeMirror> arguments = ((DeclaredType) returnType)
+					.getTypeArguments();
+			if (arguments.size() == 1) {
+				TypeMirror argument = arguments.get(0);
+				if (argument.getKind() != TypeKind.WILDCARD)
+					return argument.toString();
+				TypeMirror bound = ((WildcardType) argument).getExtendsBound();
+				if (bound != null)
+					return bound.toString();
+			}
+		}
+		return Object.class.getName();
+	}
+
+	protected void generatePointers(TypeElement type,
+			List<ExecutableElement> methods) {
+		String className = flatName(type) + "Pointers";
+		String typeName = type.getQualifiedName().toString();
+		StringBuilder sb = new StringBuilder();
+		sb.append("/**\n * Function pointers for ").append(typeName)
+				.append(", generated by ")
+				.append(PromiseProcessor.class.getName()).append("\n */\n");
+		sb.append(isPublic(type) ? "public " : "")
+				.append("final class ").append(className).append(" {\n\n");
+		sb.append("\tprivate ").append(className).append("() {\n\t}\n");
+
+		Set<String> names = new HashSet<String>();
+		for (ExecutableElement method : methods) {
+			if (!checkPointer(method))
+				continue;
+			String methodName = method.getSimpleName().toString();
+			if (!names.add(methodName)) {
+				error("Only one overload of " + methodName
+						+ " can be annotated with @GeneratePointer", method);
+				continue;
+			}
+			String pointerName = Character.toUpperCase(methodName.charAt(0))
+					+ methodName.substring(1);
+			String valueType = valueType(method);
+			List<? extends TypeMirror> parameterTypes = ((ExecutableType) method
+					.asType()).getParameterTypes();
+
+			StringBuilder parameters = new StringBuilder(typeName + " target");
+			StringBuilder arguments = new StringBuilder("target");
+			StringBuilder fields = new StringBuilder();
+			StringBuilder assignments = new StringBuilder();
+			StringBuilder invocation = new StringBuilder();
+			StringBuilder classLiterals = new StringBuilder();
+			for (int i = 0; i < parameterTypes.size(); i++) {
+				TypeMirror parameterType = parameterTypes.get(i);
+				String arg = "arg" + i;
+				parameters.append(", ").append(parameterType).append(" ")
+						.append(arg);
+				arguments.append(", ").append(arg);
+				fields.append("\t\tprivate final ").append(parameterType)
+						.append(" ").append(arg).append(";\n");
+				assignments.append("\t\t\tthis.").append(arg).append(" = ")
+						.append(arg).append(";\n");
+				invocation.append(i == 0 ? "" : ", ").append(arg);
+				classLiterals
+						.append(", ")
+						.append(processingEnv.getTypeUtils().erasure(
+								parameterType)).append(".class");
+			}
+
+			sb.append("\n\tpublic static ").append(pointerName)
+					.append(" ").append(methodName).append("(")
+					.append(parameters).append(") {\n");
+			sb.append("\t\treturn new ").append(pointerName).append("(")
+					.append(arguments).append(");\n\t}\n");
+
+			sb.append("\n\tpublic static final class ").append(pointerName)
+					.append(" extends ")
+					.append(AbstractFunctionPointer.class.getName())
+					.append("<").append(valueType).append("> {\n\n");
+			sb.append("\t\tprivate final ").append(typeName)
+					.append(" target;\n").append(fields).append("\n");
+			sb.append("\t\t").append(pointerName).append("(")
+					.append(parameters).append(") {\n");
+			sb.append("\t\t\tsuper(target, \"").append(methodName)
+					.append("\"").append(classLiterals).append(");\n");
+			sb.append("\t\t\tthis.target = target;\n").append(assignments)
+					.append("\t\t}\n\n");
+			sb.append("\t\t@SuppressWarnings(\"unchecked\")\n");
+			sb.append("\t\t@Override\n");
+			sb.append("\t\tpublic reactive.Promise<").append(valueType)
+					.append("> invoke() {\n");
+			sb.append("\t\t\ttry {\n");
+			sb.append("\t\t\t\treturn (reactive.Promise<").append(valueType)
+					.append(">) (reactive.Promise<?>) target.")
+					.append(methodName).append("(").append(invocation)
+					.append(");\n");
+			sb.append("\t\t\t} catch (java.lang.Exception e) {\n");
+			sb.append("\t\t\t\treturn failed(e);\n");
+			sb.append("\t\t\t}\n\t\t}\n\t}\n");
+		}
+		sb.append("}\n");
+		write(packageOf(type), className, type, sb);
+	}
+
+	protected void generateAdapter(TypeElement type) {
+		if (type.getKind() != ElementKind.INTERFACE) {
+			error("@GenerateAdapter can only be applied to interfaces", type);
+			return;
+		}
+		TypeMirror exception = processingEnv.getElementUtils()
+				.getTypeElement(Exception.class.getName()).asType();
+		TypeMirror throwable = processingEnv.getElementUtils()
+				.getTypeElement(Throwable.class.getName()).asType();
+		String className = flatName(type) + "Adapter";
+		String typeParameters = typeParameters(type.getTypeParameters());
+		StringBuilder typeArguments = new StringBuilder();
+		for (TypeParameterElement p : type.getTypeParameters())
+			typeArguments.append(typeArguments.length() == 0 ? "<" : ", ")
+					.append(p.getSimpleName());
+		if (typeArguments.length() > 0)
+			typeArguments.append(">");
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("/**\n * Resolves a promise when ")
+				.append(type.getQualifiedName())
+				.append(" is called back, generated by ")
+				.append(PromiseProcessor.class.getName()).append("\n */\n");
+		sb.append(isPublic(type) ? "public " : "").append("class ")
+				.append(className).append(typeParameters)
+				.append(" implements ").append(type.getQualifiedName())
+				.append(typeArguments).append(" {\n\n");
+		sb.append("\tprivate final reactive.Promise<Object> promise;\n\n");
+		sb.append("\t@SuppressWarnings(\"unchecked\")\n");
+		sb.append("\tpublic ").append(className)
+				.append("(reactive.Promise<?> promise) {\n");
+		sb.append("\t\tthis.promise = (reactive.Promise<Object>) promise;\n\t}\n");
+
+		DeclaredType declaredType = (DeclaredType) type.asType();
+		for (ExecutableElement method : ElementFilter.methodsIn(processingEnv
+				.getElementUtils().getAllMembers(type))) {
+			if (!method.getModifiers().contains(Modifier.ABSTRACT))
+				continue;
+			if (!method.getTypeParameters().isEmpty()) {
+				error("@GenerateAdapter doesn't support generic methods",
+						method);
+				continue;
+			}
+			ExecutableType methodType = (ExecutableType) processingEnv
+					.getTypeUtils().asMemberOf(declaredType, method);
+			List<? extends TypeMirror> parameterTypes = methodType
+					.getParameterTypes();
+			StringBuilder parameters = new StringBuilder();
+			for (int i = 0; i < parameterTypes.size(); i++)
+				parameters.append(i == 0 ? "" : ", ")
+						.append(parameterTypes.get(i)).append(" arg")
+						.append(i);
+			sb.append("\n\t@Override\n\tpublic ")
+					.append(methodType.getReturnType()).append(" ")
+					.append(method.getSimpleName()).append("(")
+					.append(parameters).append(") {\n");
+			if (parameterTypes.size() == 1
+					&& methodType.getReturnType().getKind() == TypeKind.VOID) {
+				TypeMirror parameterType = parameterTypes.get(0);
+				if (!CallbackAdapter.isFailure(
+						method.getAnnotation(Failure.class) != null,
+						processingEnv.getTypeUtils().isAssignable(
+								parameterType, throwable)))
+					sb.append("\t\tpromise.set(arg0);\n");
+				else if (processingEnv.getTypeUtils().isAssignable(
+						parameterType, exception))
+					sb.append("\t\tpromise.fail(arg0);\n");
+				else
+					sb.append("\t\tpromise.fail(reactive.CallbackAdapter.toException(arg0));\n");
+			} else
+				sb.append("\t\tthrow new reactive.exceptions.CallbackAdapterException(\"Don't know what to do with ")
+						.append(method.getSimpleName()).append("\");\n");
+			sb.append("\t}\n");
+		}
+		sb.append("}\n");
+		write(packageOf(type), className, type, sb);
+	}
+}
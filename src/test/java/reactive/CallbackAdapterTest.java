@@ -4,6 +4,10 @@ import static org.junit.Assert.*;
 
 import org.junit.Test;
 
+import reactive.annotations.Failure;
+import reactive.annotations.GenerateAdapter;
+import reactive.exceptions.CallbackAdapterException;
+
 public class CallbackAdapterTest {
 
 	interface SingleValueCallback{
@@ -25,6 +29,20 @@ public class CallbackAdapterTest {
 		void fail(Exception error);
 	}
 
+	@GenerateAdapter
+	interface FailoverCallback{
+		
+		void failoverAddress(String address);
+	}
+
+	@GenerateAdapter
+	interface SuccessAndErrorMessageCallback{
+		
+		void onSuccess(String string);
+		@Failure
+		void onError(String message);
+	}
+
 	@Test
 	public void test_simple_callback(){
 		final String value = "value";
@@ -60,4 +78,63 @@ public class CallbackAdapterTest {
 		assertTrue(promise.isAvailable());
 		assertEquals(value, promise.get());
 	}
+
+	@Test
+	public void test_callback_with_error(){
+		final Exception error = new Exception();
+		Promise<String> promise = new PromiseImpl<String>();
+		ValueAndErrorCallback callback = CallbackAdapter.callback(ValueAndErrorCallback.class, promise);
+		
+		callback.fail(error);
+		assertTrue(promise.isAvailable());
+		assertSame(error, promise.getError());
+	}
+
+	@Test
+	public void test_callback_with_error_message(){
+		Promise<String> promise = new PromiseImpl<String>();
+		SuccessAndErrorMessageCallback callback = CallbackAdapter.callback(SuccessAndErrorMessageCallback.class, promise);
+		
+		callback.onError("broken");
+		assertTrue(promise.isAvailable());
+		assertEquals("broken", promise.getError().getMessage());
+	}
+
+	@Test
+	public void test_generated_adapter_follows_same_rule(){
+		Promise<String> proxied = new PromiseImpl<String>();
+		Promise<String> generated = new PromiseImpl<String>();
+		CallbackAdapter.callback(SuccessAndErrorMessageCallback.class, proxied).onError("broken");
+		new CallbackAdapterTestSuccessAndErrorMessageCallbackAdapter(generated).onError("broken");
+		assertEquals(proxied.getError().getClass(), generated.getError().getClass());
+		assertEquals("broken", generated.getError().getMessage());
+	}
+
+	@Test
+	public void test_names_dont_fail_promises(){
+		Promise<String> proxied = new PromiseImpl<String>();
+		Promise<String> generated = new PromiseImpl<String>();
+		CallbackAdapter.callback(FailoverCallback.class, proxied).failoverAddress("backup");
+		new CallbackAdapterTestFailoverCallbackAdapter(generated).failoverAddress("backup");
+		assertEquals("backup", proxied.get());
+		assertEquals("backup", generated.get());
+	}
+
+	@Test(expected=CallbackAdapterException.class)
+	public void test_callback_with_unsupported_method(){
+		Promise<String> promise = new PromiseImpl<String>();
+		BaitCallback callback = CallbackAdapter.callback(BaitCallback.class, promise);
+		callback.fakeSuccess("value", true);
+	}
+
+	@Test
+	public void test_object_methods(){
+		Promise<String> promise = new PromiseImpl<String>();
+		SingleValueCallback callback = CallbackAdapter.callback(SingleValueCallback.class, promise);
+		SingleValueCallback other = CallbackAdapter.callback(SingleValueCallback.class, promise);
+		assertTrue(callback.equals(callback));
+		assertFalse(callback.equals(other));
+		assertEquals(System.identityHashCode(callback), callback.hashCode());
+		assertNotNull(callback.toString());
+	}
 }
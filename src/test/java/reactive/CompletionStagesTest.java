@@ -0,0 +1,172 @@
+package reactive;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+import reactive.exceptions.PromiseCancelledException;
+
+/**
+ * Verifying {@link CompletionStages} functionality
+ * @author george georgovassilis
+ *
+ */
+
+public class CompletionStagesTest {
+
+	@Test
+	public void test_promise_to_future() throws Exception{
+		Promise<String> p = new PromiseImpl<String>();
+		CompletableFuture<String> f = CompletionStages.toCompletableFuture(p);
+		assertFalse(f.isDone());
+		p.set("value");
+		assertEquals("value", f.getNow(null));
+	}
+
+	@Test
+	public void test_resolved_promise_to_future() throws Exception{
+		Promise<String> p = new PromiseImpl<String>();
+		p.set("value");
+		assertEquals("value", CompletionStages.toCompletableFuture(p).getNow(null));
+	}
+
+	@Test
+	public void test_failed_promise_to_future() throws Exception{
+		Promise<String> p = new PromiseImpl<String>();
+		CompletableFuture<String> f = CompletionStages.toCompletableFuture(p);
+		Exception error = new Exception("error");
+		p.fail(error);
+		try{
+			f.get();
+			fail("Expected an ExecutionException");
+		} catch (ExecutionException e){
+			assertSame(error, e.getCause());
+		}
+	}
+
+	@Test
+	public void test_cancelling_future_cancels_promise(){
+		PromisesTest.TrackingPromise p = new PromisesTest.TrackingPromise();
+		CompletableFuture<Integer> f = CompletionStages.toCompletableFuture(p);
+		assertTrue(f.cancel(false));
+		assertTrue(p.isCancelled());
+		assertEquals(0, p.callbacks);
+	}
+
+	@Test
+	public void test_cancelling_future_spares_shared_promise(){
+		Promise<String> p = new PromiseImpl<String>();
+		p.whenAvailable(new Callback<String>() {
+
+			@Override
+			public void set(String value) {
+			}
+
+			@Override
+			public void fail(Exception error) {
+			}
+		}, PromiseImpl.INLINE);
+		CompletableFuture<String> f = CompletionStages.toCompletableFuture(p);
+		assertTrue(f.cancel(false));
+		assertFalse(p.isCancelled());
+		p.set("value");
+		assertEquals("value", p.get());
+	}
+
+	@Test
+	public void test_cancelling_promise_cancels_future(){
+		Promise<String> p = new PromiseImpl<String>();
+		CompletableFuture<String> f = CompletionStages.toCompletableFuture(p);
+		p.cancel();
+		assertTrue(f.isCancelled());
+	}
+
+	@Test
+	public void test_future_to_promise(){
+		CompletableFuture<String> f = new CompletableFuture<String>();
+		Promise<String> p = CompletionStages.toPromise(f);
+		assertFalse(p.isAvailable());
+		f.complete("value");
+		assertEquals("value", p.get());
+	}
+
+	@Test
+	public void test_completed_future_to_promise(){
+		Promise<String> p = CompletionStages.toPromise(CompletableFuture.completedFuture("value"));
+		assertTrue(p instanceof ResolvedPromise);
+		assertEquals("value", p.get());
+	}
+
+	@Test
+	public void test_failed_future_to_promise(){
+		CompletableFuture<String> f = new CompletableFuture<String>();
+		IllegalStateException error = new IllegalStateException();
+		f.completeExceptionally(error);
+		Promise<String> p = CompletionStages.toPromise(f);
+		assertTrue(p instanceof ResolvedPromise);
+		assertSame(error, p.getError());
+	}
+
+	@Test
+	public void test_completed_future_doesnt_leave_pending_promise(){
+		PromiseStatistics statistics = PromiseStatistics.enable();
+		try{
+			CompletableFuture<String> failed = new CompletableFuture<String>();
+			failed.completeExceptionally(new IllegalStateException());
+			CompletionStages.toPromise(CompletableFuture.completedFuture("value"));
+			CompletionStages.toPromise(failed);
+			assertEquals(0, statistics.getCreatedCount());
+			assertEquals(0, statistics.getPendingCount());
+		} finally{
+			PromiseStatistics.disable();
+		}
+	}
+
+	@Test
+	public void test_failed_stage_to_promise(){
+		CompletableFuture<String> f = new CompletableFuture<String>();
+		CompletionStage<String> stage = f.thenApply(s -> s.toUpperCase());
+		Promise<String> p = CompletionStages.toPromise(stage);
+		IllegalStateException error = new IllegalStateException();
+		f.completeExceptionally(error);
+		assertSame(error, p.getError());
+	}
+
+	@Test
+	public void test_cancelling_promise_cancels_future_source(){
+		CompletableFuture<String> f = new CompletableFuture<String>();
+		Promise<String> p = CompletionStages.toPromise(f);
+		p.cancel();
+		assertTrue(f.isCancelled());
+	}
+
+	@Test
+	public void test_cancelled_future_cancels_promise(){
+		CompletableFuture<String> f = new CompletableFuture<String>();
+		Promise<String> p = CompletionStages.toPromise(f);
+		f.cancel(false);
+		assertTrue(p.isCancelled());
+		assertTrue(p.getError() instanceof PromiseCancelledException);
+	}
+
+	@Test
+	public void test_round_trip_returns_original(){
+		Promise<String> p = new PromiseImpl<String>();
+		assertSame(p, CompletionStages.toPromise(CompletionStages.toCompletableFuture(p)));
+		CompletableFuture<String> f = new CompletableFuture<String>();
+		assertSame(f, CompletionStages.toCompletableFuture(CompletionStages.toPromise(f)));
+	}
+
+	@Test
+	public void test_mixed_chain(){
+		Promise<Integer> p = new PromiseImpl<Integer>();
+		CompletableFuture<Integer> doubled = CompletionStages.toCompletableFuture(p).thenApply(i -> i * 2);
+		Promise<Integer> result = CompletionStages.toPromise(doubled);
+		p.set(21);
+		assertEquals(42, result.get().intValue());
+	}
+}
@@ -0,0 +1,78 @@
+package reactive;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Test;
+
+import reactive.jfr.CallbackEvent;
+import reactive.jfr.PointerInvocationEvent;
+import reactive.jfr.PromiseResolutionEvent;
+
+/**
+ * Verifying that promises emit Flight Recorder events
+ * @author george georgovassilis
+ *
+ */
+
+public class FlightRecorderTest {
+
+	protected FunctionPointer<String> greet(Promise<String> name) {
+		FunctionPointerImpl<String> fp = new FunctionPointerImpl<String>(this, name);
+		if (name.isAvailable())
+			fp.set("hello " + name.get());
+		return fp;
+	}
+
+	List<RecordedEvent> record(Runnable task) throws Exception{
+		Path file = Files.createTempFile("promises", ".jfr");
+		try (Recording recording = new Recording()) {
+			recording.enable(PromiseResolutionEvent.class);
+			recording.enable(CallbackEvent.class);
+			recording.enable(PointerInvocationEvent.class);
+			recording.start();
+			task.run();
+			recording.stop();
+			recording.dump(file);
+			return RecordingFile.readAllEvents(file);
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	int count(List<RecordedEvent> events, String type, String field, String value){
+		int count = 0;
+		for (RecordedEvent event:events)
+			if (event.getEventType().getName().equals(type) && (field == null || value.equals(event.getValue(field).toString())))
+				count++;
+		return count;
+	}
+
+	@Test
+	public void test_chain_emits_events() throws Exception{
+		List<RecordedEvent> events = record(new Runnable() {
+
+			@Override
+			public void run() {
+				Promise<String> name = new PromiseImpl<String>("name");
+				Promise<String> greeting = name.invokeWhenAvailable(greet(name));
+				name.set("world");
+				assertEquals("hello world", greeting.get());
+				new PromiseImpl<String>("failing").fail(new Exception());
+			}
+		});
+		assertEquals(1, count(events, "reactive.PointerInvocation", "method", "greet"));
+		assertEquals(1, count(events, "reactive.PromiseResolution", "promise", "name"));
+		assertEquals(1, count(events, "reactive.PromiseResolution", "outcome", "failed"));
+		assertTrue(count(events, "reactive.Callback", "promise", "name") >= 1);
+		for (RecordedEvent event:events)
+			assertEquals(Thread.currentThread().getName(), event.getThread().getJavaName());
+	}
+}
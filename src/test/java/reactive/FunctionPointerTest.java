@@ -4,10 +4,13 @@ import static org.junit.Assert.*;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Test;
 
+import reactive.annotations.GeneratePointer;
 import reactive.exceptions.FunctionPointerException;
 
 /**
@@ -106,4 +109,341 @@ public class FunctionPointerTest {
 		assertEquals("exit", log.get(2));
 		assertEquals(3, log.size());
 	}
+
+	@Test
+	public void test_callback_on_executor(){
+		final List<Runnable> tasks = new ArrayList<Runnable>();
+		Executor executor = new Executor() {
+			
+			@Override
+			public void execute(Runnable command) {
+				tasks.add(command);
+			}
+		};
+		Promise<String> promise = new PromiseImpl<String>();
+		AtomicReference<String> ref = new AtomicReference<String>();
+		
+		promise.invokeWhenAvailable(callbackMethod(promise, ref), executor);
+		promise.set(MSG);
+		
+		assertNull(ref.get());
+		assertEquals(1, tasks.size());
+		tasks.get(0).run();
+		assertEquals(MSG, ref.get());
+	}
+
+	protected FunctionPointer<Integer> increment(Promise<Integer> number){
+		FunctionPointerImpl<Integer> fp = new FunctionPointerImpl<Integer>(this, number);
+		if (number.isAvailable()){
+			fp.set(number.get()+1);
+		}
+		return fp;
+	}
+
+	@Test
+	public void test_deep_chain(){
+		boolean previous = PromiseImpl.isTrampolining();
+		PromiseImpl.setTrampolining(true);
+		try{
+			final int LINKS = 100000;
+			Promise<Integer> first = new PromiseImpl<Integer>();
+			Promise<Integer> last = first;
+			for (int i=0;i<LINKS;i++)
+				last = last.invokeWhenAvailable(increment(last));
+			first.set(0);
+			assertTrue(last.isAvailable());
+			assertEquals(LINKS, last.get().intValue());
+		} finally{
+			PromiseImpl.setTrampolining(previous);
+		}
+	}
+
+	int increments;
+
+	protected FunctionPointer<Integer> countedIncrement(Promise<Integer> number){
+		FunctionPointerImpl<Integer> fp = new FunctionPointerImpl<Integer>(this, number);
+		if (number.isAvailable()){
+			increments++;
+			fp.set(number.get()+1);
+		}
+		return fp;
+	}
+
+	@Test
+	public void test_cancel_travels_downstream(){
+		boolean previous = PromiseImpl.isTrampolining();
+		PromiseImpl.setTrampolining(true);
+		try{
+			Promise<Integer> first = new PromiseImpl<Integer>();
+			Promise<Integer> last = first;
+			for (int i=0;i<1000;i++)
+				last = last.invokeWhenAvailable(countedIncrement(last));
+			first.cancel();
+			assertTrue(last.isCancelled());
+			assertEquals(0, increments);
+		} finally{
+			PromiseImpl.setTrampolining(previous);
+		}
+	}
+
+	@Test
+	public void test_cancel_travels_upstream(){
+		final int LINKS = 100000;
+		Promise<Integer> first = new PromiseImpl<Integer>();
+		Promise<Integer> last = first;
+		for (int i=0;i<LINKS;i++)
+			last = last.invokeWhenAvailable(countedIncrement(last));
+		last.cancel();
+		assertTrue(first.isCancelled());
+		first.set(0);
+		assertEquals(0, increments);
+	}
+
+	@Test
+	public void test_cancel_spares_shared_producers(){
+		Promise<Integer> first = new PromiseImpl<Integer>();
+		Promise<Integer> second = first.invokeWhenAvailable(countedIncrement(first));
+		Promise<Integer> a = second.invokeWhenAvailable(countedIncrement(second));
+		Promise<Integer> b = second.invokeWhenAvailable(countedIncrement(second));
+		a.cancel();
+		assertFalse(second.isCancelled());
+		first.set(0);
+		assertEquals(2, b.get().intValue());
+		assertEquals(2, increments);
+	}
+
+	@Test
+	public void test_failure_travels_downstream(){
+		boolean previous = PromiseImpl.isTrampolining();
+		PromiseImpl.setTrampolining(true);
+		try{
+			final int LINKS = 100000;
+			Promise<Integer> first = new PromiseImpl<Integer>();
+			Promise<Integer> last = first;
+			for (int i=0;i<LINKS;i++)
+				last = last.invokeWhenAvailable(countedIncrement(last));
+			Exception error = new IllegalStateException();
+			first.fail(error);
+			assertTrue(last.isAvailable());
+			assertFalse(last.isCancelled());
+			assertSame(error, last.getError());
+			assertEquals(0, increments);
+		} finally{
+			PromiseImpl.setTrampolining(previous);
+		}
+	}
+
+	@Test
+	public void test_failure_releases_waiters() throws Exception{
+		final Promise<Integer> first = new PromiseImpl<Integer>();
+		final Promise<Integer> last = first.invokeWhenAvailable(countedIncrement(first))
+				.invokeWhenAvailable(countedIncrement(first));
+		Thread waiter = new Thread(){
+			public void run() {
+				last.waitForResolution();
+			};
+		};
+		waiter.start();
+		first.fail(new IllegalStateException());
+		waiter.join(10000);
+		assertFalse(waiter.isAlive());
+		assertNotNull(last.getError());
+	}
+
+	@Test
+	public void test_failure_of_pointer_result(){
+		Promise<Integer> first = new PromiseImpl<Integer>();
+		Promise<Integer> result = first.invokeWhenAvailable(neverResolved(first));
+		Promise<Integer> last = result.invokeWhenAvailable(countedIncrement(result));
+		first.set(0);
+		Exception error = new IllegalStateException();
+		lastPointer.fail(error);
+		assertSame(error, last.getError());
+		assertEquals(0, increments);
+	}
+
+	/**
+	 * A hand-written pointer which returns result or throws error
+	 */
+	static class CustomPointer extends AbstractFunctionPointer<String>{
+
+		final Promise<String> result;
+		final RuntimeException error;
+
+		CustomPointer(Promise<String> result, RuntimeException error){
+			super(new Object(), "toString");
+			this.result = result;
+			this.error = error;
+		}
+
+		@Override
+		public Promise<String> invoke() {
+			if (error != null)
+				throw error;
+			return result;
+		}
+	}
+
+	@Test
+	public void test_throwing_pointer_fails_chain() throws Exception{
+		Promise<String> first = new PromiseImpl<String>();
+		IllegalStateException error = new IllegalStateException("boom");
+		Promise<String> last = first.invokeWhenAvailable(new CustomPointer(null, error));
+		first.set("value");
+		assertTrue(last.waitForResolution(200, TimeUnit.MILLISECONDS));
+		assertSame(error, last.getError());
+	}
+
+	@Test
+	public void test_pointer_returning_null_fails_chain() throws Exception{
+		Promise<String> first = new PromiseImpl<String>();
+		Promise<String> last = first.invokeWhenAvailable(new CustomPointer(null, null));
+		first.set("value");
+		assertTrue(last.waitForResolution(200, TimeUnit.MILLISECONDS));
+		assertTrue(last.getError() instanceof FunctionPointerException);
+	}
+
+	FunctionPointerImpl<Integer> lastPointer;
+
+	/**
+	 * Returns a pointer which nobody resolves, like a pending legacy call
+	 */
+	protected FunctionPointer<Integer> neverResolved(Promise<Integer> number){
+		lastPointer = new FunctionPointerImpl<Integer>(this, number);
+		return lastPointer;
+	}
+
+	@Test
+	public void test_cancel_pending_result(){
+		Promise<Integer> first = new PromiseImpl<Integer>();
+		Promise<Integer> result = first.invokeWhenAvailable(neverResolved(first));
+		first.set(0);
+		assertFalse(result.isAvailable());
+		result.cancel();
+		assertTrue(lastPointer.isCancelled());
+	}
+
+	protected FunctionPointer<String> upperCase(Promise<String> text){
+		FunctionPointerImpl<String> fp = new FunctionPointerImpl<String>(this, text);
+		if (text.isAvailable()){
+			fp.set(text.get().toUpperCase());
+		}
+		return fp;
+	}
+
+	protected FunctionPointer<String> lowerCase(Promise<String> text){
+		FunctionPointerImpl<String> fp = new FunctionPointerImpl<String>(this, text);
+		if (text.isAvailable()){
+			fp.set(text.get().toLowerCase());
+		}
+		return fp;
+	}
+
+	/**
+	 * Has just one method which returns a promise and accepts a promise of a
+	 * long
+	 */
+	static class Doubler{
+
+		protected FunctionPointer<Long> twice(Promise<Long> number){
+			FunctionPointerImpl<Long> fp = new FunctionPointerImpl<Long>(this, number);
+			if (number.isAvailable()){
+				fp.set(number.get()*2);
+			}
+			return fp;
+		}
+	}
+
+	@Test
+	public void test_unique_method_is_bound_without_checking_caller(){
+		Doubler doubler = new Doubler();
+		Promise<Long> number = new PromiseImpl<Long>();
+		number.set(21L);
+		// the stack hasn't confirmed the method yet
+		try{
+			new FunctionPointerImpl<Long>(doubler, number);
+			fail("Expected a FunctionPointerException");
+		} catch (FunctionPointerException e){
+		}
+		assertEquals(42, doubler.twice(number).get().longValue());
+		// from now on the caller isn't checked anymore
+		FunctionPointerImpl<Long> fp = new FunctionPointerImpl<Long>(doubler, number);
+		assertEquals("twice", fp.getMethod().getName());
+		assertEquals(42, fp.invoke().get().longValue());
+	}
+
+	@Test
+	public void test_methods_with_same_signature(){
+		for (int i=0;i<3;i++){
+			Promise<String> text = new PromiseImpl<String>();
+			Promise<String> upper = text.invokeWhenAvailable(upperCase(text));
+			Promise<String> lower = text.invokeWhenAvailable(lowerCase(text));
+			assertEquals("upperCase", upperCase(text).getMethod().getName());
+			assertEquals("lowerCase", lowerCase(text).getMethod().getName());
+			text.set("Text");
+			assertEquals("TEXT", upper.get());
+			assertEquals("text", lower.get());
+		}
+	}
+
+	@Test
+	public void test_exception_fails_result(){
+		Promise<String> text = new PromiseImpl<String>();
+		FunctionPointer<Integer> number = callbackMethod_that_converts_text_to_number(text);
+		text.set("not a number");
+		@SuppressWarnings("unchecked")
+		Promise<Integer> result = (Promise<Integer>) number.invoke();
+		assertTrue(result.isAvailable());
+		assertTrue(result.getError() instanceof NumberFormatException);
+	}
+
+	boolean sumFails;
+
+	protected FunctionPointer<Integer> sum(Integer a, Integer b, Integer c, Integer d, Integer e){
+		if (sumFails)
+			throw new IllegalStateException();
+		FunctionPointerImpl<Integer> fp = new FunctionPointerImpl<Integer>(this, a, b, c, d, e);
+		fp.set(a + b + c + d + e);
+		return fp;
+	}
+
+	@Test
+	public void test_many_arguments(){
+		// more than FunctionPointerImpl.MAX_SPUN_ARITY, so invoked reflectively
+		FunctionPointer<Integer> sum = sum(1, 2, 3, 4, 5);
+		assertEquals(15, ((Promise<?>) sum.invoke()).get());
+	}
+
+	@Test
+	public void test_exception_of_reflectively_invoked_method_fails_result(){
+		FunctionPointer<Integer> sum = sum(1, 2, 3, 4, 5);
+		sumFails = true;
+		assertTrue(((Promise<?>) sum.invoke()).getError() instanceof IllegalStateException);
+	}
+
+	/**
+	 * Has its function pointers generated at build time
+	 */
+	static class Parser{
+
+		@GeneratePointer
+		FunctionPointer<Integer> parse(Promise<String> text){
+			FunctionPointer<Integer> fp = FunctionPointerTestParserPointers.parse(this, text);
+			if (text.isAvailable()){
+				fp.set(Integer.parseInt(text.get()));
+			}
+			return fp;
+		}
+	}
+
+	@Test
+	public void test_exception_of_generated_pointer_fails_result(){
+		Parser parser = new Parser();
+		Promise<String> text = new PromiseImpl<String>();
+		FunctionPointer<Integer> fp = parser.parse(text);
+		Promise<Integer> number = text.invokeWhenAvailable(fp);
+		text.set("not a number");
+		assertTrue(((Promise<?>) fp.invoke()).getError() instanceof NumberFormatException);
+		assertTrue(number.getError() instanceof NumberFormatException);
+	}
 }
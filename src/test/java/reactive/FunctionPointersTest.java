@@ -0,0 +1,122 @@
+package reactive;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * {@link FunctionPointers} tests
+ * @author george georgovassilis
+ *
+ */
+
+public class FunctionPointersTest {
+
+	protected FunctionPointer<Integer> parse(Promise<String> text){
+		FunctionPointer<Integer> fp = FunctionPointers.of(this::parse, text);
+		if (text.isAvailable()){
+			fp.set(Integer.parseInt(text.get()));
+		}
+		return fp;
+	}
+
+	protected FunctionPointer<Integer> add(Promise<Integer> a, Promise<Integer> b, List<String> log){
+		FunctionPointer<Integer> fp = FunctionPointers.of(this::add, a, b, log);
+		log.add("pass");
+		if (a.isAvailable() && b.isAvailable()){
+			fp.set(a.get()+b.get());
+		}
+		return fp;
+	}
+
+	protected FunctionPointer<Integer> sum(Promise<Integer> a, Promise<Integer> b, Promise<Integer> c, Promise<Integer> d){
+		FunctionPointer<Integer> fp = FunctionPointers.of(this::sum, a, b, c, d);
+		if (a.isAvailable() && b.isAvailable() && c.isAvailable() && d.isAvailable()){
+			fp.set(a.get()+b.get()+c.get()+d.get());
+		}
+		return fp;
+	}
+
+	protected FunctionPointer<Integer> increment(Promise<Integer> number){
+		FunctionPointer<Integer> fp = FunctionPointers.of(this::increment, number);
+		if (number.isAvailable()){
+			fp.set(number.get()+1);
+		}
+		return fp;
+	}
+
+	@Test
+	public void test_callback_with_return_promise(){
+		Promise<String> text = new PromiseImpl<String>();
+		Promise<Integer> number = text.invokeWhenAvailable(parse(text));
+		assertFalse(number.isAvailable());
+		text.set("100");
+		assertEquals(100, number.get().intValue());
+	}
+
+	@Test
+	public void test_reinvocation_with_several_arguments(){
+		Promise<Integer> a = new PromiseImpl<Integer>();
+		Promise<Integer> b = new PromiseImpl<Integer>();
+		List<String> log = new ArrayList<String>();
+		Promise<Integer> sum = b.invokeWhenAvailable(add(a, b, log));
+		a.set(1);
+		assertFalse(sum.isAvailable());
+		b.set(2);
+		assertEquals(3, sum.get().intValue());
+		assertEquals(2, log.size());
+	}
+
+	@Test
+	public void test_four_arguments(){
+		Promise<Integer> a = new PromiseImpl<Integer>();
+		Promise<Integer> b = new PromiseImpl<Integer>();
+		Promise<Integer> c = new PromiseImpl<Integer>();
+		Promise<Integer> d = new PromiseImpl<Integer>();
+		a.set(1);
+		b.set(2);
+		c.set(3);
+		Promise<Integer> sum = d.invokeWhenAvailable(sum(a, b, c, d));
+		d.set(4);
+		assertEquals(10, sum.get().intValue());
+	}
+
+	@Test
+	public void test_exception_fails_result(){
+		Promise<String> text = new PromiseImpl<String>();
+		FunctionPointer<Integer> number = parse(text);
+		text.set("not a number");
+		Promise<?> result = (Promise<?>) number.invoke();
+		assertTrue(result.isAvailable());
+		assertTrue(result.getError() instanceof NumberFormatException);
+	}
+
+	@Test
+	public void test_method() throws Exception{
+		Promise<String> text = new PromiseImpl<String>();
+		FunctionPointer<Integer> number = parse(text);
+		text.set("1");
+		Promise<?> result = (Promise<?>) number.getMethod().invoke(number.getTarget(), text);
+		assertEquals(1, result.get());
+	}
+
+	@Test
+	public void test_deep_chain(){
+		boolean previous = PromiseImpl.isTrampolining();
+		PromiseImpl.setTrampolining(true);
+		try{
+			final int LINKS = 100000;
+			Promise<Integer> first = new PromiseImpl<Integer>();
+			Promise<Integer> last = first;
+			for (int i=0;i<LINKS;i++)
+				last = last.invokeWhenAvailable(increment(last));
+			first.set(0);
+			assertEquals(LINKS, last.get().intValue());
+		} finally{
+			PromiseImpl.setTrampolining(previous);
+		}
+	}
+}
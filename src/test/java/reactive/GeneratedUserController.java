@@ -0,0 +1,57 @@
+package reactive;
+
+import reactive.annotations.GeneratePointer;
+import reactive.legacy.MockView;
+import reactive.legacy.UserService;
+import reactive.legacy.UserServiceCallbackAdapter;
+import reactive.model.User;
+
+/**
+ * Same as {@link ADifferentUserController}, but with function pointers and
+ * callback adapters generated at build time, so neither stack inspection nor
+ * reflection nor proxies are involved.
+ * 
+ * @author george georgovassilis
+ *
+ */
+public class GeneratedUserController {
+
+	protected UserService userService;
+	protected MockView view;
+
+	public GeneratedUserController(UserService userService, MockView view) {
+		this.userService = userService;
+		this.view = view;
+	}
+
+	@GeneratePointer
+	FunctionPointer<Boolean> getUserStatus(Promise<User> user) {
+		FunctionPointer<Boolean> status = GeneratedUserControllerPointers
+				.getUserStatus(this, user);
+		if (user.isAvailable()) {
+			userService.isUserActive(user.get(),
+					new UserServiceCallbackAdapter<Boolean>(status));
+		}
+		return status;
+	}
+
+	@GeneratePointer
+	FunctionPointer<Void> showUserDetails(Promise<User> user,
+			Promise<Boolean> status) {
+		if (user.isAvailable() && status.isAvailable()) {
+			view.setFullUserName(user.get().fullName);
+			view.setCustomerId(user.get().customerId);
+			view.setUserStatus(status.get() ? "Active" : "Inactive");
+		}
+		return GeneratedUserControllerPointers.showUserDetails(this, user,
+				status);
+	}
+
+	public void doLogin(String login, String password) {
+		Promise<User> user = new PromiseImpl<User>();
+		userService.getUser(login, password,
+				new UserServiceCallbackAdapter<User>(user));
+		Promise<Boolean> status = user.invokeWhenAvailable(getUserStatus(user));
+		status.invokeWhenAvailable(showUserDetails(user, status));
+	}
+}
@@ -0,0 +1,206 @@
+package reactive;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Verifying {@link PromiseCache} functionality
+ * @author george georgovassilis
+ *
+ */
+
+public class PromiseCacheTest {
+
+	/**
+	 * Loader whose promises are resolved by the test
+	 */
+	static class ManualLoader implements PromiseCache.Loader<String, String>{
+
+		Map<String, Promise<String>> pending = new HashMap<String, Promise<String>>();
+		int loads;
+
+		@Override
+		public Promise<String> load(String key) {
+			loads++;
+			Promise<String> promise = new PromiseImpl<String>();
+			pending.put(key, promise);
+			return promise;
+		}
+
+		void resolve(String key, String value){
+			pending.remove(key).set(value);
+		}
+	}
+
+	ManualLoader loader = new ManualLoader();
+
+	@Test
+	public void test_lookups_share_load(){
+		PromiseCache<String, String> cache = new PromiseCache<String, String>(loader, 10);
+		Promise<String> a = cache.get("key");
+		Promise<String> b = cache.get("key");
+		assertSame(a, b);
+		assertEquals(1, loader.loads);
+		loader.resolve("key", "value");
+		assertEquals("value", a.get());
+		assertSame(a, cache.get("key"));
+		assertEquals(1, loader.loads);
+		assertEquals(2, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, cache.getLoadCount());
+	}
+
+	@Test
+	public void test_failed_load_isnt_cached(){
+		PromiseCache<String, String> cache = new PromiseCache<String, String>(loader, 10);
+		Promise<String> a = cache.get("key");
+		Exception error = new Exception("error");
+		loader.pending.remove("key").fail(error);
+		assertSame(error, a.getError());
+		assertEquals(0, cache.size());
+		cache.get("key");
+		assertEquals(2, loader.loads);
+		assertEquals(1, cache.getLoadFailureCount());
+	}
+
+	FunctionPointer<String> upperCase(Promise<String> text){
+		FunctionPointerImpl<String> fp = new FunctionPointerImpl<String>(this, text);
+		if (text.isAvailable())
+			fp.set(text.get().toUpperCase());
+		return fp;
+	}
+
+	@Test
+	public void test_cancelled_chain_spares_shared_load(){
+		PromiseCache<String, String> cache = new PromiseCache<String, String>(loader, 10);
+		Promise<String> a = cache.get("key");
+		Promise<String> b = cache.get("key");
+		b.invokeWhenAvailable(upperCase(b)).cancel();
+		assertFalse(a.isCancelled());
+		loader.resolve("key", "value");
+		assertEquals("value", a.get());
+		assertEquals("value", cache.get("key").get());
+		assertEquals(1, loader.loads);
+	}
+
+	@Test
+	public void test_cancelled_entry_is_reloaded(){
+		PromiseCache<String, String> cache = new PromiseCache<String, String>(loader, 10);
+		cache.get("key").cancel();
+		Promise<String> reloaded = cache.get("key");
+		assertFalse(reloaded.isCancelled());
+		assertEquals(2, loader.loads);
+		loader.resolve("key", "value");
+		assertEquals("value", reloaded.get());
+	}
+
+	@Test
+	public void test_least_recently_used_key_is_evicted(){
+		PromiseCache<String, String> cache = new PromiseCache<String, String>(loader, 2);
+		cache.get("a");
+		cache.get("b");
+		cache.get("a");
+		cache.get("c");
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictionCount());
+		cache.get("a");
+		assertEquals(3, loader.loads);
+		cache.get("b");
+		assertEquals(4, loader.loads);
+	}
+
+	@Test
+	public void test_values_expire() throws Exception{
+		PromiseCache<String, String> cache = new PromiseCache<String, String>(loader, 10, 20, 0, TimeUnit.MILLISECONDS);
+		cache.get("key");
+		loader.resolve("key", "old");
+		Thread.sleep(30);
+		Promise<String> reloaded = cache.get("key");
+		assertFalse(reloaded.isAvailable());
+		assertEquals(2, loader.loads);
+		loader.resolve("key", "new");
+		assertEquals("new", cache.get("key").get());
+	}
+
+	@Test
+	public void test_refresh_ahead_serves_stale_value() throws Exception{
+		PromiseCache<String, String> cache = new PromiseCache<String, String>(loader, 10, 10000, 20, TimeUnit.MILLISECONDS);
+		cache.get("key");
+		loader.resolve("key", "old");
+		Thread.sleep(30);
+		assertEquals("old", cache.get("key").get());
+		assertEquals(2, loader.loads);
+		// only one refresh at a time
+		assertEquals("old", cache.get("key").get());
+		assertEquals(2, loader.loads);
+		loader.resolve("key", "new");
+		assertEquals("new", cache.get("key").get());
+		assertEquals(1, cache.getRefreshCount());
+	}
+
+	@Test
+	public void test_failed_refresh_keeps_value() throws Exception{
+		PromiseCache<String, String> cache = new PromiseCache<String, String>(loader, 10, 10000, 20, TimeUnit.MILLISECONDS);
+		cache.get("key");
+		loader.resolve("key", "old");
+		Thread.sleep(30);
+		cache.get("key");
+		loader.pending.remove("key").fail(new Exception("error"));
+		assertEquals("old", cache.get("key").get());
+	}
+
+	@Test
+	public void test_load_time_is_counted() throws Exception{
+		PromiseCache<String, String> cache = new PromiseCache<String, String>(loader, 10);
+		cache.get("key");
+		Thread.sleep(10);
+		loader.resolve("key", "value");
+		assertTrue(cache.getTotalLoadTime(TimeUnit.MILLISECONDS) >= 10);
+	}
+
+	@Test
+	public void test_concurrent_lookups_load_once() throws Exception{
+		final int THREADS = 4;
+		final int KEYS = 50;
+		final AtomicInteger loads = new AtomicInteger();
+		final List<Promise<String>> pending = new ArrayList<Promise<String>>();
+		final PromiseCache<Integer, String> cache = new PromiseCache<Integer, String>(new PromiseCache.Loader<Integer, String>() {
+
+			@Override
+			public Promise<String> load(Integer key) {
+				loads.incrementAndGet();
+				Promise<String> promise = new PromiseImpl<String>();
+				synchronized (pending) {
+					pending.add(promise);
+				}
+				return promise;
+			}
+		}, 100);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t=0;t<THREADS;t++){
+			Thread thread = new Thread(){
+				public void run() {
+					for (int i=0;i<10000;i++)
+						cache.get(i % KEYS);
+				};
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		for (Thread thread:threads)
+			thread.join();
+		assertEquals(KEYS, loads.get());
+		assertEquals(THREADS * 10000 - KEYS, cache.getHitCount());
+		for (Promise<String> promise:pending)
+			promise.set("value");
+		assertEquals("value", cache.get(0).get());
+	}
+}
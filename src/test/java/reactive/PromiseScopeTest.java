@@ -0,0 +1,203 @@
+package reactive;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import reactive.exceptions.PromiseException;
+
+/**
+ * Verifying {@link PromiseScope} functionality
+ * @author george georgovassilis
+ *
+ */
+
+public class PromiseScopeTest {
+
+	List<PromiseImpl<String>> calls = new ArrayList<PromiseImpl<String>>();
+
+	/**
+	 * A backend call which resolves when the test says so
+	 */
+	protected Promise<String> call(String request) {
+		PromiseImpl<String> call = new PromiseImpl<String>(request);
+		calls.add(call);
+		return call;
+	}
+
+	protected FunctionPointer<String> greet(Promise<String> name) {
+		FunctionPointerImpl<String> fp = new FunctionPointerImpl<String>(this, name);
+		if (name.isAvailable())
+			fp.set("hello " + name.get());
+		return fp;
+	}
+
+	@Test
+	public void test_close_waits_for_children() {
+		PromiseScope scope = new PromiseScope("request");
+		Promise<String> user = scope.add(call("user"));
+		Promise<String> greeting = scope.add(user.invokeWhenAvailable(greet(user)));
+		Promise<Void> done = scope.close();
+		assertFalse(done.isAvailable());
+		calls.get(0).set("george");
+		assertEquals("hello george", greeting.get());
+		assertTrue(done.isAvailable());
+		assertNull(done.getError());
+	}
+
+	@Test
+	public void test_close_empty_scope() {
+		assertTrue(new PromiseScope("request").close().isAvailable());
+	}
+
+	@Test
+	public void test_max_in_flight() {
+		PromiseScope scope = new PromiseScope("request", 2);
+		List<Promise<String>> results = new ArrayList<Promise<String>>();
+		for (int i = 0; i < 5; i++)
+			results.add(scope.fork(FunctionPointers.of(this::call, "call " + i)));
+		assertEquals(2, calls.size());
+		assertEquals(2, scope.getInFlight());
+		assertEquals(3, scope.getQueued());
+		Promise<Void> done = scope.close();
+
+		calls.get(1).set("b");
+		assertEquals("b", results.get(1).get());
+		assertEquals(3, calls.size());
+		assertEquals(2, scope.getInFlight());
+		for (int i = 0; i < 5; i++)
+			if (!calls.get(i).isAvailable())
+				calls.get(i).set("value " + i);
+		assertEquals(5, calls.size());
+		assertEquals(0, scope.getInFlight());
+		assertEquals("value 4", results.get(4).get());
+		assertTrue(done.isAvailable());
+	}
+
+	@Test
+	public void test_failure_cancels_siblings() {
+		PromiseScope scope = new PromiseScope("request", 2);
+		Promise<String> a = scope.fork(FunctionPointers.of(this::call, "a"));
+		Promise<String> b = scope.fork(FunctionPointers.of(this::call, "b"));
+		Promise<String> c = scope.fork(FunctionPointers.of(this::call, "c"));
+		Promise<Void> done = scope.close();
+		Exception error = new IllegalStateException();
+		calls.get(0).fail(error);
+		assertSame(error, a.getError());
+		assertTrue(b.isCancelled());
+		assertTrue(calls.get(1).isCancelled());
+		// queued children are cancelled without being invoked
+		assertTrue(c.isCancelled());
+		assertEquals(2, calls.size());
+		assertSame(error, done.getError());
+		assertEquals(0, scope.getInFlight());
+	}
+
+	@Test
+	public void test_child_added_after_failure_is_cancelled() {
+		PromiseScope scope = new PromiseScope("request");
+		scope.add(call("a"));
+		calls.get(0).fail(new IllegalStateException());
+		Promise<String> b = scope.add(call("b"));
+		assertTrue(b.isCancelled());
+	}
+
+	@Test
+	public void test_cancel() {
+		PromiseScope scope = new PromiseScope("request", 1);
+		Promise<String> user = scope.add(call("user"));
+		Promise<String> greeting = scope.add(user.invokeWhenAvailable(greet(user)));
+		Promise<String> queued = scope.fork(FunctionPointers.of(this::call, "queued"));
+		assertTrue(scope.cancel());
+		assertTrue(user.isCancelled());
+		assertTrue(greeting.isCancelled());
+		assertTrue(queued.isCancelled());
+		assertEquals(1, calls.size());
+		assertTrue(scope.close().isCancelled());
+	}
+
+	@Test
+	public void test_cancel_doesnt_start_queued_children() {
+		for (int i = 0; i < 100; i++) {
+			calls.clear();
+			PromiseScope scope = new PromiseScope("request", 1);
+			scope.add(call("a"));
+			scope.add(call("b"));
+			Promise<String> queued = scope.fork(FunctionPointers.of(this::call, "queued"));
+			scope.cancel();
+			assertTrue(queued.isCancelled());
+			assertEquals(2, calls.size());
+		}
+	}
+
+	@Test
+	public void test_failure_doesnt_start_queued_children() {
+		// without trampolining, siblings are cancelled while the failing
+		// child is still being reported
+		boolean previous = PromiseImpl.isTrampolining();
+		PromiseImpl.setTrampolining(false);
+		try {
+			for (int i = 0; i < 100; i++) {
+				calls.clear();
+				PromiseScope scope = new PromiseScope("request", 2);
+				scope.add(call("a"));
+				scope.add(call("b"));
+				scope.add(call("c"));
+				Promise<String> queued = scope.fork(FunctionPointers.of(this::call, "queued"));
+				calls.get(1).fail(new IllegalStateException());
+				assertTrue(queued.isCancelled());
+				assertEquals(3, calls.size());
+			}
+		} finally {
+			PromiseImpl.setTrampolining(previous);
+		}
+	}
+
+	@Test
+	public void test_cancelled_child_releases_slot() {
+		PromiseScope scope = new PromiseScope("request", 1);
+		Promise<String> a = scope.fork(FunctionPointers.of(this::call, "a"));
+		scope.fork(FunctionPointers.of(this::call, "b"));
+		a.cancel();
+		assertTrue(calls.get(0).isCancelled());
+		assertEquals(2, calls.size());
+		assertEquals(1, scope.getInFlight());
+		// cancelling a child isn't a failure of the scope
+		calls.get(1).set("b");
+		Promise<Void> done = scope.close();
+		assertTrue(done.isAvailable());
+		assertNull(done.getError());
+	}
+
+	/**
+	 * Looks up a user and, while at it, its status in the same scope
+	 */
+	protected Promise<String> lookup(PromiseScope scope) {
+		scope.add(call("status"));
+		return call("user");
+	}
+
+	@Test
+	public void test_children_may_add_children_after_close() {
+		PromiseScope scope = new PromiseScope("request", 1);
+		scope.add(call("first"));
+		scope.fork(FunctionPointers.of(this::lookup, scope));
+		Promise<Void> done = scope.close();
+		calls.get(0).set("first");
+		assertEquals(3, calls.size());
+		calls.get(2).set("george");
+		assertFalse(done.isAvailable());
+		calls.get(1).set("active");
+		assertTrue(done.isAvailable());
+	}
+
+	@Test(expected = PromiseException.class)
+	public void test_add_to_completed_scope() {
+		PromiseScope scope = new PromiseScope("request");
+		scope.close();
+		scope.add(call("late"));
+	}
+}
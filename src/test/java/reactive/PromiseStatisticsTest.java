@@ -0,0 +1,153 @@
+package reactive;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Verifying {@link PromiseStatistics} functionality
+ * @author george georgovassilis
+ *
+ */
+
+public class PromiseStatisticsTest {
+
+	PromiseStatistics statistics;
+
+	Callback<String> noop = new Callback<String>() {
+
+		@Override
+		public void set(String value) {
+		}
+
+		@Override
+		public void fail(Exception error) {
+		}
+	};
+
+	protected FunctionPointer<String> greet(Promise<String> name) {
+		FunctionPointerImpl<String> fp = new FunctionPointerImpl<String>(this, name);
+		if (name.isAvailable())
+			fp.set("hello " + name.get());
+		return fp;
+	}
+
+	@Before
+	public void setup(){
+		statistics = PromiseStatistics.enable();
+	}
+
+	@After
+	public void tearDown(){
+		PromiseStatistics.disable();
+	}
+
+	@Test
+	public void test_lifecycle_is_counted(){
+		Promise<String> a = new PromiseImpl<String>();
+		Promise<String> b = new PromiseImpl<String>();
+		Promise<String> c = new PromiseImpl<String>();
+		new PromiseImpl<String>();
+		a.whenAvailable(noop);
+		b.whenAvailable(noop);
+		a.set("a");
+		b.fail(new Exception());
+		c.cancel();
+		assertEquals(4, statistics.getCreatedCount());
+		assertEquals(1, statistics.getResolvedCount());
+		assertEquals(1, statistics.getFailedCount());
+		assertEquals(1, statistics.getCancelledCount());
+		assertEquals(1, statistics.getPendingCount());
+		assertEquals(2, statistics.getCallbackCount());
+		assertEquals(2.0 / 3, statistics.getCallbacksPerPromise(), 0.001);
+	}
+
+	@Test
+	public void test_times_are_measured() throws Exception{
+		Promise<String> promise = new PromiseImpl<String>();
+		promise.whenAvailable(new Callback<String>() {
+
+			@Override
+			public void set(String value) {
+				try {
+					Thread.sleep(5);
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+
+			@Override
+			public void fail(Exception error) {
+			}
+		});
+		Thread.sleep(5);
+		promise.set("value");
+		assertTrue(statistics.getMaxResolutionTime() >= 5000);
+		assertTrue(statistics.getMaxCallbackTime() >= 5000);
+		assertTrue(statistics.getAverageCallbackTime() >= 5000);
+	}
+
+	@Test
+	public void test_pointer_invocations_are_counted(){
+		Promise<String> name = new PromiseImpl<String>();
+		Promise<String> greeting = name.invokeWhenAvailable(greet(name));
+		name.set("world");
+		assertEquals("hello world", greeting.get());
+		assertEquals(1, statistics.getPointerInvocationCount());
+		// function pointers aren't counted, the chain's link is
+		assertEquals(2, statistics.getCreatedCount());
+		assertEquals(0, statistics.getPendingCount());
+	}
+
+	@Test
+	public void test_promises_created_before_enabling_arent_counted(){
+		PromiseStatistics.disable();
+		Promise<String> promise = new PromiseImpl<String>();
+		statistics = PromiseStatistics.enable();
+		promise.set("value");
+		assertEquals(0, statistics.getResolvedCount());
+		assertEquals(0, statistics.getPendingCount());
+	}
+
+	@Test
+	public void test_enabling_twice_keeps_counting(){
+		Promise<String> promise = new PromiseImpl<String>();
+		assertSame(statistics, PromiseStatistics.enable());
+		promise.set("value");
+		assertEquals(1, statistics.getResolvedCount());
+		assertEquals(0, statistics.getPendingCount());
+	}
+
+	@Test
+	public void test_promises_report_to_the_metrics_which_counted_them(){
+		Promise<String> promise = new PromiseImpl<String>();
+		PromiseStatistics first = statistics;
+		PromiseStatistics.disable();
+		statistics = PromiseStatistics.enable();
+		promise.set("value");
+		assertEquals(1, first.getResolvedCount());
+		assertEquals(0, first.getPendingCount());
+		assertEquals(0, statistics.getResolvedCount());
+		assertEquals(0, statistics.getPendingCount());
+	}
+
+	@Test
+	public void test_statistics_are_exposed_over_jmx() throws Exception{
+		new PromiseImpl<String>().set("value");
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(PromiseStatistics.OBJECT_NAME);
+		assertEquals(1L, server.getAttribute(name, "ResolvedCount"));
+		server.invoke(name, "reset", null, null);
+		assertEquals(0L, server.getAttribute(name, "ResolvedCount"));
+		PromiseStatistics.disable();
+		assertFalse(server.isRegistered(name));
+		assertNull(PromiseImpl.getMetrics());
+	}
+}
@@ -0,0 +1,264 @@
+package reactive;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import reactive.exceptions.PromiseException;
+
+/**
+ * Verifying {@link PromiseStream} functionality
+ * @author george georgovassilis
+ *
+ */
+
+public class PromiseStreamTest {
+
+	/**
+	 * Subscriber which records what it receives and requests only when told to
+	 */
+	static class RecordingSubscriber<T> implements Flow.Subscriber<T>{
+
+		Flow.Subscription subscription;
+		List<T> items = new ArrayList<T>();
+		Throwable error;
+		boolean completed;
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+		}
+
+		@Override
+		public void onNext(T item) {
+			items.add(item);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			error = throwable;
+		}
+
+		@Override
+		public void onComplete() {
+			completed = true;
+		}
+	}
+
+	/**
+	 * Iterator over 0..count-1 which counts how many items were taken
+	 */
+	static class CountingIterator implements Iterator<Integer>{
+
+		final int count;
+		int taken;
+
+		CountingIterator(int count) {
+			this.count = count;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return taken < count;
+		}
+
+		@Override
+		public Integer next() {
+			return taken++;
+		}
+	}
+
+	@Test
+	public void test_items_are_delivered_on_demand(){
+		PromiseStream<String> stream = new PromiseStream<String>(10);
+		RecordingSubscriber<String> s = new RecordingSubscriber<String>();
+		stream.subscribe(s);
+		stream.offer("a");
+		stream.offer("b");
+		stream.offer("c");
+		assertTrue(s.items.isEmpty());
+		s.subscription.request(2);
+		assertEquals(Arrays.asList("a", "b"), s.items);
+		stream.complete();
+		assertFalse(s.completed);
+		s.subscription.request(5);
+		assertEquals(Arrays.asList("a", "b", "c"), s.items);
+		assertTrue(s.completed);
+	}
+
+	@Test
+	public void test_buffer_is_bounded(){
+		PromiseStream<Integer> stream = new PromiseStream<Integer>(2);
+		RecordingSubscriber<Integer> s = new RecordingSubscriber<Integer>();
+		stream.subscribe(s);
+		assertTrue(stream.offer(1));
+		assertTrue(stream.offer(2));
+		assertFalse(stream.offer(3));
+		Promise<Void> ready = stream.whenReady();
+		assertFalse(ready.isAvailable());
+		s.subscription.request(1);
+		assertTrue(ready.isAvailable());
+		assertTrue(stream.offer(3));
+	}
+
+	@Test
+	public void test_iterator_is_pulled_on_demand(){
+		CountingIterator source = new CountingIterator(1000);
+		PromiseStream<Integer> stream = PromiseStream.from(source);
+		RecordingSubscriber<Integer> s = new RecordingSubscriber<Integer>();
+		stream.subscribe(s);
+		assertEquals(0, source.taken);
+		s.subscription.request(10);
+		assertEquals(10, source.taken);
+		assertEquals(10, s.items.size());
+		s.subscription.cancel();
+		s.subscription.request(10);
+		assertEquals(10, source.taken);
+		assertFalse(s.completed);
+	}
+
+	@Test
+	public void test_iterator_source_completes_with_last_item(){
+		CountingIterator source = new CountingIterator(3);
+		PromiseStream<Integer> stream = PromiseStream.from(source);
+		RecordingSubscriber<Integer> s = new RecordingSubscriber<Integer>();
+		stream.subscribe(s);
+		s.subscription.request(2);
+		assertFalse(s.completed);
+		s.subscription.request(1);
+		assertEquals(Arrays.asList(0, 1, 2), s.items);
+		assertTrue(s.completed);
+	}
+
+	@Test
+	public void test_large_source(){
+		final int COUNT = 1000000;
+		final AtomicInteger sum = new AtomicInteger();
+		Promise<Void> done = PromiseStream.from(new CountingIterator(COUNT)).forEach(new Callback<Integer>() {
+
+			@Override
+			public void set(Integer item) {
+				assertEquals(sum.getAndIncrement(), item.intValue());
+			}
+
+			@Override
+			public void fail(Exception e) {
+			}
+		});
+		assertTrue(done.isAvailable());
+		assertNull(done.getError());
+		assertEquals(COUNT, sum.get());
+	}
+
+	@Test
+	public void test_failure_after_buffered_items(){
+		PromiseStream<String> stream = new PromiseStream<String>();
+		stream.offer("a");
+		Exception error = new Exception("error");
+		stream.fail(error);
+		RecordingSubscriber<String> s = new RecordingSubscriber<String>();
+		stream.subscribe(s);
+		assertNull(s.error);
+		s.subscription.request(1);
+		assertEquals(Arrays.asList("a"), s.items);
+		assertSame(error, s.error);
+	}
+
+	@Test
+	public void test_cancel(){
+		PromiseStream<Integer> stream = new PromiseStream<Integer>(1);
+		RecordingSubscriber<Integer> s = new RecordingSubscriber<Integer>();
+		stream.subscribe(s);
+		stream.offer(1);
+		Promise<Void> ready = stream.whenReady();
+		s.subscription.cancel();
+		assertTrue(stream.isCancelled());
+		assertTrue(ready.isCancelled());
+		assertFalse(stream.offer(2));
+		assertTrue(s.items.isEmpty());
+	}
+
+	@Test
+	public void test_only_one_subscriber(){
+		PromiseStream<Integer> stream = new PromiseStream<Integer>();
+		RecordingSubscriber<Integer> first = new RecordingSubscriber<Integer>();
+		RecordingSubscriber<Integer> second = new RecordingSubscriber<Integer>();
+		stream.subscribe(first);
+		stream.subscribe(second);
+		assertNull(first.error);
+		assertTrue(second.error instanceof PromiseException);
+	}
+
+	@Test
+	public void test_non_positive_request(){
+		PromiseStream<Integer> stream = new PromiseStream<Integer>();
+		RecordingSubscriber<Integer> s = new RecordingSubscriber<Integer>();
+		stream.subscribe(s);
+		s.subscription.request(0);
+		assertTrue(s.error instanceof IllegalArgumentException);
+		assertTrue(stream.isCancelled());
+	}
+
+	@Test
+	public void test_promise_adapters(){
+		Promise<String> p = new PromiseImpl<String>();
+		Promise<List<String>> list = PromiseStream.from(p).toList();
+		assertFalse(list.isAvailable());
+		p.set("value");
+		assertEquals(Arrays.asList("value"), list.get());
+
+		PromiseStream<String> stream = new PromiseStream<String>();
+		Promise<String> first = stream.first();
+		stream.offer("a");
+		assertEquals("a", first.get());
+		assertFalse(stream.offer("b"));
+	}
+
+	@Test
+	public void test_failed_promise_fails_stream(){
+		Promise<String> p = new PromiseImpl<String>();
+		Promise<List<String>> list = PromiseStream.from(p).toList();
+		Exception error = new Exception("error");
+		p.fail(error);
+		assertSame(error, list.getError());
+	}
+
+	@Test
+	public void test_concurrent_producer() throws Exception{
+		final int COUNT = 100000;
+		final PromiseStream<Integer> stream = new PromiseStream<Integer>(16);
+		Thread producer = new Thread(){
+			public void run() {
+				for (int i=0;i<COUNT;i++)
+					while (!stream.offer(i))
+						stream.whenReady().waitForResolution();
+				stream.complete();
+			};
+		};
+		final List<Integer> items = new ArrayList<Integer>();
+		Promise<Void> done = stream.forEach(new Callback<Integer>() {
+
+			@Override
+			public void set(Integer item) {
+				items.add(item);
+			}
+
+			@Override
+			public void fail(Exception e) {
+			}
+		});
+		producer.start();
+		done.waitForResolution();
+		producer.join();
+		assertEquals(COUNT, items.size());
+		for (int i=0;i<COUNT;i++)
+			assertEquals(i, items.get(i).intValue());
+	}
+}
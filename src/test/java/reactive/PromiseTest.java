@@ -1,9 +1,18 @@
 package reactive;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
 import org.junit.Test;
 
 import reactive.exceptions.AlreadyResolvedException;
 import reactive.exceptions.NotResolvedException;
+import reactive.exceptions.PromiseCancelledException;
 import reactive.exceptions.PromiseException;
 import reactive.Promise;
 import static org.junit.Assert.*;
@@ -22,6 +31,25 @@ public class PromiseTest {
 		return mock(Callback.class);
 	}
 	
+	/**
+	 * Executor which queues tasks until {@link #runAll()} is called
+	 */
+	static class QueueingExecutor implements Executor{
+		
+		List<Runnable> tasks = new ArrayList<Runnable>();
+
+		@Override
+		public void execute(Runnable command) {
+			tasks.add(command);
+		}
+		
+		void runAll(){
+			for (Runnable r:tasks)
+				r.run();
+			tasks.clear();
+		}
+	}
+	
 	@Test
 	public void test_set(){
 		final String value = "value";
@@ -147,4 +175,330 @@ public class PromiseTest {
 		verify(callback, times(1)).fail(error);
 	}
 
+	@Test
+	public void test_callback_on_executor(){
+		final String value = "value";
+		QueueingExecutor executor = new QueueingExecutor();
+		Promise<String> p = new PromiseImpl<String>();
+		Callback<String> callback = mockCallback();
+		p.whenAvailable(callback, executor);
+		p.set(value);
+		verify(callback, never()).set(anyString());
+		assertEquals(1, executor.tasks.size());
+		executor.runAll();
+		verify(callback, times(1)).set(value);
+	}
+
+	@Test
+	public void test_callback_on_executor_after_resolution(){
+		final String value = "value";
+		QueueingExecutor executor = new QueueingExecutor();
+		Promise<String> p = new PromiseImpl<String>();
+		Callback<String> callback = mockCallback();
+		p.set(value);
+		p.whenAvailable(callback, executor);
+		verify(callback, never()).set(anyString());
+		executor.runAll();
+		verify(callback, times(1)).set(value);
+	}
+
+	@Test
+	public void test_promise_executor(){
+		final String value = "value";
+		QueueingExecutor executor = new QueueingExecutor();
+		Promise<String> p = new PromiseImpl<String>("on executor", executor);
+		Callback<String> inlineCallback = mockCallback();
+		Callback<String> callback = mockCallback();
+		p.whenAvailable(callback);
+		p.whenAvailable(inlineCallback, PromiseImpl.INLINE);
+		p.set(value);
+		verify(inlineCallback, times(1)).set(value);
+		verify(callback, never()).set(anyString());
+		executor.runAll();
+		verify(callback, times(1)).set(value);
+	}
+
+	@Test
+	public void test_default_executor(){
+		QueueingExecutor executor = new QueueingExecutor();
+		PromiseImpl.setDefaultExecutor(executor);
+		try{
+			PromiseImpl<String> p = new PromiseImpl<String>();
+			assertSame(executor, p.getExecutor());
+		} finally{
+			PromiseImpl.setDefaultExecutor(PromiseImpl.INLINE);
+		}
+		assertSame(PromiseImpl.INLINE, new PromiseImpl<String>().getExecutor());
+	}
+
+	@Test
+	public void test_deep_chain(){
+		boolean previous = PromiseImpl.isTrampolining();
+		PromiseImpl.setTrampolining(true);
+		try{
+			final int LINKS = 100000;
+			Promise<String> first = new PromiseImpl<String>();
+			Promise<String> last = first;
+			for (int i=0;i<LINKS;i++){
+				Promise<String> next = new PromiseImpl<String>();
+				last.whenAvailable(next);
+				last = next;
+			}
+			first.set("value");
+			assertTrue(last.isAvailable());
+			assertEquals("value", last.get());
+		} finally{
+			PromiseImpl.setTrampolining(previous);
+		}
+	}
+
+	@Test
+	public void test_callback_waits_for_promise_it_resolved() throws Exception{
+		boolean previous = PromiseImpl.isTrampolining();
+		try{
+			for (boolean trampolining:new boolean[]{false, true}){
+				PromiseImpl.setTrampolining(trampolining);
+				final Promise<String> first = new PromiseImpl<String>();
+				final Promise<String> second = new PromiseImpl<String>();
+				final Promise<String> third = new PromiseImpl<String>();
+				second.whenAvailable(third);
+				final List<Boolean> resolved = new ArrayList<Boolean>();
+				first.whenAvailable(new Callback<String>() {
+
+					@Override
+					public void set(String value) {
+						second.set(value);
+						try{
+							resolved.add(third.waitForResolution(200, TimeUnit.MILLISECONDS));
+						} catch (InterruptedException e){
+						}
+					}
+
+					@Override
+					public void fail(Exception error) {
+					}
+				});
+				first.set("value");
+				assertEquals("trampolining " + trampolining, Arrays.asList(true), resolved);
+				assertEquals("value", third.get());
+			}
+		} finally{
+			PromiseImpl.setTrampolining(previous);
+		}
+	}
+
+	@Test
+	public void test_callback_failure_doesnt_strand_chain(){
+		Promise<String> first = new PromiseImpl<String>();
+		Promise<String> second = new PromiseImpl<String>();
+		Promise<String> third = new PromiseImpl<String>();
+		first.whenAvailable(second);
+		second.whenAvailable(new Callback<String>() {
+
+			@Override
+			public void set(String success) {
+				throw new IllegalStateException();
+			}
+
+			@Override
+			public void fail(Exception e) {
+			}
+		});
+		second.whenAvailable(third);
+		try{
+			first.set("value");
+			fail("Expected the callback's exception");
+		} catch (IllegalStateException e){
+		}
+		assertTrue(third.isAvailable());
+	}
+
+	@Test
+	public void test_cancel(){
+		Promise<String> p = new PromiseImpl<String>();
+		Callback<String> callback = mockCallback();
+		p.whenAvailable(callback);
+		assertTrue(p.cancel());
+		assertTrue(p.isCancelled());
+		assertTrue(p.isAvailable());
+		assertTrue(p.getError() instanceof PromiseCancelledException);
+		verify(callback, times(1)).fail(p.getError());
+		verify(callback, never()).set(anyString());
+		assertFalse(p.cancel());
+		// the producer lost the race, its value is dropped
+		p.set("late");
+		p.fail(new Exception("late"));
+		assertNull(p.get());
+		p.waitForResolution();
+	}
+
+	@Test
+	public void test_cancel_resolved_promise(){
+		Promise<String> p = new PromiseImpl<String>();
+		p.set("value");
+		assertFalse(p.cancel());
+		assertFalse(p.isCancelled());
+		assertEquals("value", p.get());
+	}
+
+	@Test
+	public void test_cancel_releases_callbacks(){
+		PromisesTest.TrackingPromise p = new PromisesTest.TrackingPromise();
+		p.whenAvailable(new PromiseImpl<Integer>());
+		p.cancel();
+		assertFalse(((PromiseImpl<Integer>)p).hasCallbacks());
+	}
+
+	@Test
+	public void test_wait_times_out() throws Exception{
+		Promise<String> p = new PromiseImpl<String>();
+		long start = System.nanoTime();
+		assertFalse(p.waitForResolution(20, TimeUnit.MILLISECONDS));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+		p.set("value");
+		assertTrue(p.waitForResolution(0, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void test_wait_is_interrupted() throws Exception{
+		Promise<String> p = new PromiseImpl<String>();
+		Thread.currentThread().interrupt();
+		try{
+			p.waitForResolution(1, TimeUnit.SECONDS);
+			fail("Expected an InterruptedException");
+		} catch (InterruptedException e){
+		}
+		assertFalse(Thread.interrupted());
+	}
+
+	@Test
+	public void test_uninterruptible_wait_keeps_interrupt_status() throws Exception{
+		final Promise<String> p = new PromiseImpl<String>();
+		final Thread waiting = Thread.currentThread();
+		new Thread(){
+			public void run() {
+				waiting.interrupt();
+				p.set("value");
+			};
+		}.start();
+		p.waitForResolution();
+		assertTrue(Thread.interrupted());
+		assertEquals("value", p.get());
+	}
+
+	@Test
+	public void test_many_waiters() throws Exception{
+		final int WAITERS = 500;
+		final Promise<String> p = new PromiseImpl<String>();
+		final CountDownLatch started = new CountDownLatch(WAITERS);
+		final CountDownLatch released = new CountDownLatch(WAITERS);
+		for (int i=0;i<WAITERS;i++){
+			final boolean timed = i % 2 == 0;
+			new Thread(){
+				public void run() {
+					started.countDown();
+					try{
+						// every other waiter gives up once before waiting for good
+						if (timed)
+							p.waitForResolution(1, TimeUnit.MILLISECONDS);
+						p.waitForResolution();
+					} catch (InterruptedException e){
+						return;
+					}
+					released.countDown();
+				};
+			}.start();
+		}
+		started.await();
+		p.set("value");
+		assertTrue(released.await(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void test_register_twice(){
+		Promise<String> p = new PromiseImpl<String>();
+		Callback<String> callback = mockCallback();
+		p.whenAvailable(callback);
+		p.whenAvailable(mockCallback());
+		try{
+			p.whenAvailable(callback);
+			fail("Expected a PromiseException");
+		} catch (PromiseException e){
+		}
+	}
+
+	@Test
+	public void test_remove_single_callback(){
+		Promise<String> p = new PromiseImpl<String>();
+		Callback<String> callback = mockCallback();
+		p.whenAvailable(callback, PromiseImpl.INLINE);
+		assertTrue(p.removeCallback(callback));
+		assertFalse(p.removeCallback(callback));
+		p.set("value");
+		verify(callback, never()).set("value");
+	}
+
+	@Test
+	public void test_waiter_after_callback() throws Exception{
+		final Promise<String> p = new PromiseImpl<String>();
+		final List<String> seen = new ArrayList<String>();
+		p.whenAvailable(new Callback<String>() {
+			
+			@Override
+			public void set(String value) {
+				seen.add(value);
+			}
+			
+			@Override
+			public void fail(Exception error) {
+			}
+		}, PromiseImpl.INLINE);
+		Thread waiter = new Thread(){
+			public void run() {
+				p.waitForResolution();
+			};
+		};
+		waiter.start();
+		while (waiter.getState() != Thread.State.WAITING)
+			Thread.sleep(1);
+		p.set("value");
+		waiter.join(10000);
+		assertFalse(waiter.isAlive());
+		assertEquals("value", seen.get(0));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void test_single_callback_doesnt_allocate(){
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		Callback<String> callback = mockCallback();
+		PromiseImpl<String>[] promises = new PromiseImpl[10000];
+		// warm up both loops
+		for (int i=0;i<10;i++){
+			withoutCallback(promises);
+			withCallback(promises, callback);
+		}
+		long start = threads.getThreadAllocatedBytes(thread);
+		withoutCallback(promises);
+		long without = threads.getThreadAllocatedBytes(thread) - start;
+		start = threads.getThreadAllocatedBytes(thread);
+		withCallback(promises, callback);
+		long with = threads.getThreadAllocatedBytes(thread) - start;
+		// the callback takes the place of the callback list
+		assertTrue(with + " vs " + without + " bytes", with - without < promises.length);
+	}
+
+	private void withoutCallback(PromiseImpl<String>[] promises){
+		for (int i=0;i<promises.length;i++)
+			promises[i] = new PromiseImpl<String>();
+	}
+
+	private void withCallback(PromiseImpl<String>[] promises, Callback<String> callback){
+		for (int i=0;i<promises.length;i++){
+			promises[i] = new PromiseImpl<String>();
+			promises[i].whenAvailable(callback, PromiseImpl.INLINE);
+		}
+	}
+
 }
@@ -0,0 +1,113 @@
+package reactive;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import reactive.exceptions.PromiseTimeoutException;
+
+/**
+ * Verifying {@link PromiseTimer} functionality
+ * @author george georgovassilis
+ *
+ */
+
+public class PromiseTimerTest {
+
+	PromiseTimer timer = new PromiseTimer(1, TimeUnit.MILLISECONDS, 64);
+
+	@After
+	public void tearDown(){
+		timer.stop();
+	}
+
+	@Test
+	public void test_unresolved_promise_times_out(){
+		Promise<String> p = new PromiseImpl<String>();
+		long start = System.nanoTime();
+		PromiseTimer.Timeout timeout = timer.timeout(p, 20, TimeUnit.MILLISECONDS);
+		p.waitForResolution();
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+		assertTrue(p.getError() instanceof PromiseTimeoutException);
+		assertTrue(timeout.isExpired());
+		assertFalse(timeout.cancel());
+	}
+
+	@Test
+	public void test_resolving_cancels_timeout() throws Exception{
+		Promise<String> p = new PromiseImpl<String>();
+		PromiseTimer.Timeout timeout = timer.timeout(p, 20, TimeUnit.MILLISECONDS);
+		p.set("done");
+		assertTrue(timeout.isCancelled());
+		Thread.sleep(50);
+		assertEquals("done", p.get());
+		assertEquals(0, timer.size());
+	}
+
+	@Test
+	public void test_resolved_promise_doesnt_time_out(){
+		Promise<String> p = new PromiseImpl<String>();
+		p.set("done");
+		PromiseTimer.Timeout timeout = timer.timeout(p, 1, TimeUnit.MILLISECONDS);
+		assertTrue(timeout.isCancelled());
+	}
+
+	@Test
+	public void test_cancel_removes_callback() throws Exception{
+		PromisesTest.TrackingPromise p = new PromisesTest.TrackingPromise();
+		PromiseTimer.Timeout timeout = timer.timeout(p, 10, TimeUnit.MILLISECONDS);
+		assertEquals(1, p.callbacks);
+		assertTrue(timeout.cancel());
+		assertEquals(0, p.callbacks);
+		Thread.sleep(30);
+		assertFalse(p.isAvailable());
+	}
+
+	@Test
+	public void test_deadline_beyond_one_revolution(){
+		Promise<String> p = new PromiseImpl<String>();
+		long start = System.nanoTime();
+		// the wheel turns every 64ms
+		timer.timeout(p, 150, TimeUnit.MILLISECONDS);
+		p.waitForResolution();
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(150));
+		assertTrue(p.getError() instanceof PromiseTimeoutException);
+	}
+
+	@Test
+	public void test_many_deadlines() throws Exception{
+		int count = 200000;
+		List<Promise<Integer>> promises = new ArrayList<Promise<Integer>>(count);
+		// every other promise gets a long deadline and is resolved before it
+		for (int i=0;i<count;i++){
+			Promise<Integer> p = new PromiseImpl<Integer>();
+			timer.timeout(p, i % 2 == 0 ? 60000 : 20 + i % 100, TimeUnit.MILLISECONDS);
+			promises.add(p);
+		}
+		for (int i=0;i<count;i+=2)
+			promises.get(i).set(i);
+		for (int i=0;i<count;i++){
+			Promise<Integer> p = promises.get(i);
+			p.waitForResolution();
+			if (i % 2 == 0)
+				assertEquals(i, p.get().intValue());
+			else
+				assertTrue(p.getError() instanceof PromiseTimeoutException);
+		}
+		// cancelled timeouts are dropped within one revolution of the wheel
+		Thread.sleep(200);
+		assertEquals(0, timer.size());
+	}
+
+	@Test
+	public void test_promises_timeout(){
+		Promise<String> p = Promises.timeout(new PromiseImpl<String>(), 5, TimeUnit.MILLISECONDS);
+		p.waitForResolution();
+		assertTrue(p.getError() instanceof PromiseTimeoutException);
+	}
+}
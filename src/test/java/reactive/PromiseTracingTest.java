@@ -0,0 +1,171 @@
+package reactive;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Verifying {@link PromiseTracing} functionality
+ * @author george georgovassilis
+ *
+ */
+
+public class PromiseTracingTest {
+
+	List<Promise<String>> roots = new ArrayList<Promise<String>>();
+	PromiseImpl<String> backend;
+
+	protected FunctionPointer<String> greet(Promise<String> name) {
+		FunctionPointerImpl<String> fp = new FunctionPointerImpl<String>(this, name);
+		if (name.isAvailable())
+			fp.set("hello " + name.get());
+		return fp;
+	}
+
+	/**
+	 * Calls a backend which doesn't answer and greets what it will return
+	 */
+	protected Promise<String> lookup(Promise<String> key) {
+		backend = new PromiseImpl<String>("legacy backend");
+		return backend.invokeWhenAvailable(greet(backend));
+	}
+
+	PromiseImpl<String> root(String name) {
+		PromiseImpl<String> root = new PromiseImpl<String>(name);
+		roots.add(root);
+		return root;
+	}
+
+	@After
+	public void tearDown() {
+		PromiseTracing.setSampleRate(0);
+		for (Promise<String> root : roots)
+			if (!root.isAvailable())
+				root.cancel();
+		if (backend != null && !backend.isAvailable())
+			backend.cancel();
+		assertTrue(PromiseTracing.getPendingChains().isEmpty());
+	}
+
+	@Test
+	public void test_untraced_by_default() {
+		Promise<String> root = root("user");
+		Promise<String> greeting = root.invokeWhenAvailable(greet(root));
+		assertTrue(PromiseTracing.getPendingChains().isEmpty());
+		assertEquals(greeting + "\nwaiting for " + root + "\n",
+				PromiseTracing.getAsyncStackTrace(greeting));
+	}
+
+	@Test
+	public void test_traced_chain() {
+		PromiseTracing.setSampleRate(1);
+		Promise<String> root = root("user");
+		Promise<String> greeting = root.invokeWhenAvailable(greet(root));
+		assertEquals(1, PromiseTracing.getPendingChains().size());
+		assertSame(greeting, PromiseTracing.getPendingChains().get(0));
+		// links chained to a traced link are traced regardless of the rate
+		PromiseTracing.setSampleRate(Integer.MAX_VALUE);
+		Promise<String> next = greeting.invokeWhenAvailable(greet(greeting));
+		assertEquals(2, PromiseTracing.getPendingChains().size());
+		assertTrue(PromiseTracing.getAsyncStackTrace(next).contains(
+				"for reactive.PromiseTracingTest.greet"));
+		String stack = PromiseTracing.getAsyncStackTrace(greeting);
+		assertTrue(stack, stack.contains("invokes reactive.PromiseTracingTest.greet"));
+		assertTrue(stack, stack.contains("at reactive.PromiseTracingTest.test_traced_chain"));
+		assertTrue(stack, stack.contains("waiting for " + root));
+
+		root.set("george");
+		assertEquals("hello george", greeting.get());
+		assertEquals("hello hello george", next.get());
+		assertTrue(PromiseTracing.getPendingChains().isEmpty());
+		stack = PromiseTracing.getAsyncStackTrace(greeting);
+		assertTrue(stack, stack.contains("resolved after"));
+		assertFalse(stack, stack.contains("waiting for"));
+	}
+
+	@Test
+	public void test_stuck_in_pointer() {
+		PromiseTracing.setSampleRate(1);
+		Promise<String> root = root("user");
+		FunctionPointer<String> lookup = FunctionPointers.of(this::lookup, root);
+		Promise<String> greeting = root.invokeWhenAvailable(lookup);
+		root.set("george");
+		assertFalse(greeting.isAvailable());
+		// the chain built by the pointer is traced as its child
+		assertEquals(2, PromiseTracing.getPendingChains().size());
+		String stack = PromiseTracing.getAsyncStackTrace(greeting);
+		String function = lookup.getTarget().getClass().getName() + ".apply";
+		assertTrue(stack, stack.contains("invokes " + function));
+		assertTrue(stack, stack.contains("invoked after"));
+		assertTrue(stack, stack.contains("for " + function));
+		assertTrue(stack, stack.contains("at reactive.PromiseTracingTest.lookup"));
+		assertTrue(stack, stack.endsWith("waiting for " + backend + "\n"));
+
+		backend.set("ada");
+		assertEquals("hello ada", greeting.get());
+	}
+
+	@Test
+	public void test_sample_rate() {
+		PromiseTracing.setSampleRate(10);
+		for (int i = 0; i < 1000; i++) {
+			Promise<String> root = root("user " + i);
+			root.invokeWhenAvailable(greet(root));
+		}
+		int traced = PromiseTracing.getPendingChains().size();
+		assertTrue(traced + " traced", traced >= 99 && traced <= 100);
+	}
+
+	@Test
+	public void test_full_pending_list_drops_oldest() {
+		PromiseTracing.setSampleRate(1);
+		Promise<String> first = null;
+		for (int i = 0; i <= PromiseTracing.MAX_PENDING; i++) {
+			Promise<String> root = root("user " + i);
+			Promise<String> greeting = root.invokeWhenAvailable(greet(root));
+			if (first == null)
+				first = greeting;
+		}
+		List<Promise<?>> pending = PromiseTracing.getPendingChains();
+		assertTrue(pending.size() + " pending", pending.size() <= PromiseTracing.MAX_PENDING);
+		assertFalse(pending.contains(first));
+		// sampling goes on
+		Promise<String> root = root("late");
+		Promise<String> late = root.invokeWhenAvailable(greet(root));
+		assertTrue(PromiseTracing.getPendingChains().contains(late));
+	}
+
+	@Test
+	public void test_unreferenced_chains_drop_out() throws Exception {
+		PromiseTracing.setSampleRate(1);
+		PromiseImpl<String> root = new PromiseImpl<String>("forgotten");
+		root.invokeWhenAvailable(greet(root));
+		root = null;
+		for (int i = 0; i < 50 && !PromiseTracing.getPendingChains().isEmpty(); i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertTrue(PromiseTracing.getPendingChains().isEmpty());
+	}
+
+	@Test
+	public void test_print_pending_chains() {
+		PromiseTracing.setSampleRate(1);
+		Promise<String> root = root("user");
+		Promise<String> greeting = root.invokeWhenAvailable(greet(root));
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PromiseTracing.printPendingChains(new PrintStream(bytes), 0, TimeUnit.SECONDS);
+		assertTrue(bytes.toString().startsWith(greeting + "\n"));
+		assertTrue(bytes.toString().contains("at reactive.PromiseTracingTest.test_print_pending_chains"));
+		bytes.reset();
+		PromiseTracing.printPendingChains(new PrintStream(bytes), 1, TimeUnit.HOURS);
+		assertEquals("", bytes.toString());
+	}
+}
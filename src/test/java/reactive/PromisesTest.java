@@ -0,0 +1,282 @@
+package reactive;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+import reactive.exceptions.AlreadyResolvedException;
+import reactive.exceptions.PromiseException;
+
+/**
+ * Verifying {@link Promises} functionality
+ * @author george georgovassilis
+ *
+ */
+
+public class PromisesTest {
+
+	/**
+	 * Keeps track of how many callbacks are registered
+	 */
+	static class TrackingPromise extends PromiseImpl<Integer>{
+		
+		int callbacks;
+		
+		@Override
+		public void whenAvailable(Callback<Integer> callback, Executor executor) {
+			callbacks++;
+			super.whenAvailable(callback, executor);
+		}
+		
+		@Override
+		public boolean removeCallback(Callback<Integer> callback) {
+			boolean removed = super.removeCallback(callback);
+			if (removed)
+				callbacks--;
+			return removed;
+		}
+	}
+
+	List<Promise<Integer>> promises(int count){
+		List<Promise<Integer>> promises = new ArrayList<Promise<Integer>>();
+		for (int i=0;i<count;i++)
+			promises.add(new TrackingPromise());
+		return promises;
+	}
+
+	boolean noCallbacksLeft(Promise<Integer> promise){
+		return ((TrackingPromise)promise).callbacks == 0;
+	}
+
+	@Test
+	public void test_remove_callback(){
+		Promise<Integer> p = new PromiseImpl<Integer>();
+		final List<Integer> calls = new ArrayList<Integer>();
+		Callback<Integer> callback = new Callback<Integer>() {
+			
+			@Override
+			public void set(Integer success) {
+				calls.add(success);
+			}
+			
+			@Override
+			public void fail(Exception e) {
+			}
+		};
+		Promise<Integer> other = new PromiseImpl<Integer>();
+		p.whenAvailable(other);
+		p.whenAvailable(callback);
+		assertTrue(p.removeCallback(callback));
+		assertFalse(p.removeCallback(callback));
+		p.set(1);
+		assertTrue(calls.isEmpty());
+		assertTrue(other.isAvailable());
+	}
+
+	@Test
+	public void test_all(){
+		List<Promise<Integer>> promises = promises(3);
+		Promise<List<Integer>> all = Promises.all(promises);
+		promises.get(2).set(3);
+		promises.get(0).set(1);
+		assertFalse(all.isAvailable());
+		promises.get(1).set(2);
+		assertEquals(Arrays.asList(1,2,3), all.get());
+	}
+
+	@Test
+	public void test_all_fails_fast(){
+		List<Promise<Integer>> promises = promises(3);
+		Promise<List<Integer>> all = Promises.all(promises);
+		Exception error = new Exception();
+		promises.get(1).fail(error);
+		assertSame(error, all.getError());
+		assertTrue(noCallbacksLeft(promises.get(0)));
+	}
+
+	@Test
+	public void test_all_empty(){
+		List<Promise<Integer>> none = promises(0);
+		assertTrue(Promises.all(none).get().isEmpty());
+	}
+
+	@Test
+	public void test_any(){
+		List<Promise<Integer>> promises = promises(3);
+		Promise<Integer> any = Promises.any(promises);
+		promises.get(0).fail(new Exception());
+		assertFalse(any.isAvailable());
+		promises.get(2).set(3);
+		assertEquals(3, any.get().intValue());
+		assertTrue(noCallbacksLeft(promises.get(1)));
+	}
+
+	@Test
+	public void test_any_fails_when_all_fail(){
+		List<Promise<Integer>> promises = promises(2);
+		Promise<Integer> any = Promises.any(promises);
+		promises.get(0).fail(new Exception());
+		assertFalse(any.isAvailable());
+		Exception error = new Exception();
+		promises.get(1).fail(error);
+		assertSame(error, any.getError());
+	}
+
+	@Test
+	public void test_race(){
+		List<Promise<Integer>> promises = promises(2);
+		Promise<Integer> race = Promises.race(promises);
+		Exception error = new Exception();
+		promises.get(1).fail(error);
+		assertSame(error, race.getError());
+		assertTrue(noCallbacksLeft(promises.get(0)));
+	}
+
+	@Test
+	public void test_race_with_resolved_promise(){
+		Promise<Integer> resolved = new PromiseImpl<Integer>();
+		resolved.set(1);
+		Promise<Integer> pending = new TrackingPromise();
+		assertEquals(1, Promises.race(resolved, pending).get().intValue());
+		assertTrue(noCallbacksLeft(pending));
+	}
+
+	@Test
+	public void test_quorum(){
+		List<Promise<Integer>> promises = promises(5);
+		Promise<List<Integer>> quorum = Promises.quorum(2, promises);
+		promises.get(3).set(4);
+		promises.get(0).fail(new Exception());
+		assertFalse(quorum.isAvailable());
+		promises.get(1).set(2);
+		assertEquals(Arrays.asList(4,2), quorum.get());
+		assertTrue(noCallbacksLeft(promises.get(4)));
+	}
+
+	@Test
+	public void test_quorum_fails_when_unreachable(){
+		List<Promise<Integer>> promises = promises(3);
+		Promise<List<Integer>> quorum = Promises.quorum(2, promises);
+		promises.get(0).fail(new Exception());
+		assertFalse(quorum.isAvailable());
+		promises.get(1).fail(new Exception());
+		assertTrue(quorum.getError() != null);
+	}
+
+	@Test
+	public void test_empty_quorum(){
+		Promise<List<Integer>> quorum = Promises.quorum(0, promises(2));
+		assertTrue(quorum instanceof ResolvedPromise);
+		assertTrue(quorum.get().isEmpty());
+	}
+
+	@Test(expected=PromiseException.class)
+	public void test_quorum_larger_than_inputs(){
+		Promises.quorum(3, promises(2));
+	}
+
+	@Test
+	public void test_large_fan_in(){
+		List<Promise<Integer>> promises = promises(100000);
+		Promise<List<Integer>> all = Promises.all(promises);
+		for (int i=0;i<promises.size();i++)
+			promises.get(i).set(i);
+		assertEquals(99999, all.get().get(99999).intValue());
+	}
+
+	static class Counter implements Callback<Object>{
+		int values;
+		int errors;
+
+		@Override
+		public void set(Object value) {
+			values++;
+		}
+
+		@Override
+		public void fail(Exception e) {
+			errors++;
+		}
+	}
+
+	protected FunctionPointer<Integer> increment(Promise<Integer> number) {
+		FunctionPointerImpl<Integer> fp = new FunctionPointerImpl<Integer>(this, number);
+		if (number.isAvailable() && number.getError() == null)
+			fp.set(number.get() + 1);
+		return fp;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@Test
+	public void test_resolved(){
+		assertSame(Promises.resolved(null), Promises.resolved(null));
+		assertSame(Promises.resolved(true), Promises.resolved(Boolean.TRUE));
+		Promise<String> promise = Promises.resolved("value");
+		assertTrue(promise.isAvailable());
+		assertEquals("value", promise.get());
+		assertNull(promise.getError());
+		assertFalse(promise.cancel());
+		Counter counter = new Counter();
+		promise.whenAvailable((Callback) counter);
+		promise.whenAvailable((Callback) counter);
+		assertEquals(2, counter.values);
+		try {
+			promise.set("other");
+			fail("Expected an exception");
+		} catch (AlreadyResolvedException e){
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@Test
+	public void test_failed(){
+		Exception error = new Exception();
+		Promise<String> promise = Promises.failed(error);
+		assertTrue(promise.isAvailable());
+		assertSame(error, promise.getError());
+		Counter counter = new Counter();
+		promise.whenAvailable((Callback) counter);
+		assertEquals(1, counter.errors);
+	}
+
+	@Test
+	public void test_resolved_promises_chain(){
+		Promise<Integer> one = Promises.resolved(1);
+		assertEquals(2, one.invokeWhenAvailable(increment(one)).get().intValue());
+		Promise<List<Integer>> all = Promises.all(Promises.resolved(1), Promises.resolved(2));
+		assertEquals(Arrays.asList(1, 2), all.get());
+	}
+
+	@Test
+	public void test_failed_promises_chain(){
+		Exception error = new Exception();
+		Promise<Integer> failed = Promises.failed(error);
+		assertSame(error, failed.invokeWhenAvailable(increment(failed))
+				.invokeWhenAvailable(increment(failed)).getError());
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@Test
+	public void test_resolved_promise_doesnt_allocate(){
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		Promise<Boolean> promise = Promises.resolved(true);
+		Callback callback = new Counter();
+		// warm up, and measure what measuring costs
+		for (int i=0;i<100000;i++)
+			promise.whenAvailable(callback);
+		long start = threads.getThreadAllocatedBytes(thread);
+		long overhead = threads.getThreadAllocatedBytes(thread) - start;
+		start = threads.getThreadAllocatedBytes(thread);
+		for (int i=0;i<100000;i++)
+			promise.whenAvailable(callback);
+		long allocated = threads.getThreadAllocatedBytes(thread) - start - overhead;
+		assertTrue(allocated + " bytes", allocated < 1000);
+	}
+}
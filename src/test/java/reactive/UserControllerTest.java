@@ -85,4 +85,34 @@ public class UserControllerTest {
 		assertEquals("12345", legacyView.getCustomerId());
 	}
 	
+	@Test
+	public void testGeneratedImplementation(){
+		MockUserService legacyUserService = new MockUserService();
+		MockView legacyView = new MockView();
+		
+		User user = new User();
+		user.fullName = "test user";
+		user.customerId = "12345";
+
+		GeneratedUserController controller = new GeneratedUserController(legacyUserService, legacyView);
+		
+		controller.doLogin("login", "password");
+
+		assertEquals(null, legacyView.getUserName());
+		assertEquals(null, legacyView.getStatus());
+		assertEquals(null, legacyView.getCustomerId());
+	
+		legacyUserService.resolveGetUser(user);
+
+		assertEquals(null, legacyView.getUserName());
+		assertEquals(null, legacyView.getStatus());
+		assertEquals(null, legacyView.getCustomerId());
+
+		legacyUserService.resolveIsUserActive(true);
+
+		assertEquals("test user", legacyView.getUserName());
+		assertEquals("Active", legacyView.getStatus());
+		assertEquals("12345", legacyView.getCustomerId());
+	}
+	
 }
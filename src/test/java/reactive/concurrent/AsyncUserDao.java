@@ -1,12 +1,16 @@
 package reactive.concurrent;
 
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+import reactive.annotations.GenerateAdapter;
 import reactive.model.User;
 
 public class AsyncUserDao {
 
+	@GenerateAdapter
 	interface Callback<T>{
 		void success(T value);
 	}
@@ -30,6 +34,17 @@ public class AsyncUserDao {
 		});
 	}
 
+	public void findUsersByIds(final List<Integer> ids, final Callback<Map<Integer, User>> callback){
+		pool.submit(new Runnable() {
+			
+			@Override
+			public void run() {
+				Map<Integer, User> users = dao.findUsersByIds(ids);
+				callback.success(users);
+			}
+		});
+	}
+
 	public void getStatus(final String userName, final Callback<Boolean> callback){
 		pool.submit(new Runnable() {
 			
@@ -41,4 +56,10 @@ public class AsyncUserDao {
 		});
 	}
 
+	/**
+	 * Stops the threads once the calls submitted so far are done
+	 */
+	public void shutdown(){
+		pool.shutdown();
+	}
 }
@@ -0,0 +1,172 @@
+package reactive.concurrent;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import reactive.BatchLoader;
+import reactive.CallbackAdapter;
+import reactive.Promise;
+import reactive.PromiseImpl;
+import reactive.PromiseTimer;
+import reactive.model.User;
+
+/**
+ * Verifying {@link BatchLoader} functionality
+ * @author george georgovassilis
+ *
+ */
+
+public class BatchLoaderTest {
+
+	PromiseTimer timer = new PromiseTimer(1, TimeUnit.MILLISECONDS, 64);
+	AsyncUserDao dao;
+	List<List<Integer>> batches = Collections.synchronizedList(new ArrayList<List<Integer>>());
+
+	/**
+	 * Squares numbers and records the batches it was called with
+	 */
+	BatchLoader.BatchFunction<Integer, Integer> squares = new BatchLoader.BatchFunction<Integer, Integer>() {
+
+		@Override
+		public Promise<Map<Integer, Integer>> load(List<Integer> keys) {
+			batches.add(keys);
+			Map<Integer, Integer> values = new HashMap<Integer, Integer>();
+			for (Integer key : keys)
+				if (key >= 0)
+					values.put(key, key * key);
+			Promise<Map<Integer, Integer>> promise = new PromiseImpl<Map<Integer, Integer>>();
+			promise.set(values);
+			return promise;
+		}
+	};
+
+	@After
+	public void tearDown(){
+		timer.stop();
+		if (dao != null)
+			dao.shutdown();
+	}
+
+	@Test
+	public void test_keys_are_loaded_together(){
+		BatchLoader<Integer, Integer> loader = new BatchLoader<Integer, Integer>(squares, 100, 0, TimeUnit.MILLISECONDS);
+		Promise<Integer> a = loader.load(2);
+		Promise<Integer> b = loader.load(3);
+		Promise<Integer> c = loader.load(2);
+		Promise<Integer> missing = loader.load(-1);
+		assertSame(a, c);
+		assertFalse(a.isAvailable());
+		loader.dispatch();
+		assertEquals(4, a.get().intValue());
+		assertEquals(9, b.get().intValue());
+		assertTrue(missing.isAvailable());
+		assertNull(missing.get());
+		assertEquals(1, batches.size());
+		assertEquals(3, batches.get(0).size());
+	}
+
+	@Test
+	public void test_full_batch_is_dispatched(){
+		BatchLoader<Integer, Integer> loader = new BatchLoader<Integer, Integer>(squares, 3, 0, TimeUnit.MILLISECONDS);
+		for (int i=0;i<7;i++)
+			loader.load(i);
+		assertEquals(2, batches.size());
+		assertEquals(2, loader.getBatchCount());
+		loader.dispatch();
+		assertEquals(3, batches.size());
+		assertEquals(1, batches.get(2).size());
+	}
+
+	@Test
+	public void test_batch_is_dispatched_after_delay() throws Exception{
+		BatchLoader<Integer, Integer> loader = new BatchLoader<Integer, Integer>(squares, 100, 5, TimeUnit.MILLISECONDS, timer);
+		Promise<Integer> a = loader.load(2);
+		Promise<Integer> b = loader.load(3);
+		assertTrue(a.waitForResolution(1, TimeUnit.SECONDS));
+		assertTrue(b.waitForResolution(1, TimeUnit.SECONDS));
+		assertEquals(1, batches.size());
+	}
+
+	@Test
+	public void test_failed_batch_fails_all_keys(){
+		final Exception error = new Exception("backend down");
+		BatchLoader<Integer, Integer> loader = new BatchLoader<Integer, Integer>(new BatchLoader.BatchFunction<Integer, Integer>() {
+
+			@Override
+			public Promise<Map<Integer, Integer>> load(List<Integer> keys) {
+				Promise<Map<Integer, Integer>> promise = new PromiseImpl<Map<Integer, Integer>>();
+				promise.fail(error);
+				return promise;
+			}
+		}, 10, 0, TimeUnit.MILLISECONDS);
+		Promise<Integer> a = loader.load(1);
+		Promise<Integer> b = loader.load(2);
+		loader.dispatch();
+		assertSame(error, a.getError());
+		assertSame(error, b.getError());
+	}
+
+	@Test
+	public void test_throwing_batch_function_fails_all_keys(){
+		BatchLoader<Integer, Integer> loader = new BatchLoader<Integer, Integer>(new BatchLoader.BatchFunction<Integer, Integer>() {
+
+			@Override
+			public Promise<Map<Integer, Integer>> load(List<Integer> keys) {
+				throw new IllegalStateException();
+			}
+		}, 10, 0, TimeUnit.MILLISECONDS);
+		Promise<Integer> a = loader.load(1);
+		loader.dispatch();
+		assertTrue(a.getError() instanceof IllegalStateException);
+	}
+
+	@Test
+	public void test_concurrent_lookups_are_batched() throws Exception{
+		final int THREADS = 4;
+		final int LOOKUPS = 5000;
+		dao = new AsyncUserDao(new UserDao(), THREADS);
+		final AtomicInteger roundTrips = new AtomicInteger();
+		final BatchLoader<Integer, User> loader = new BatchLoader<Integer, User>(new BatchLoader.BatchFunction<Integer, User>() {
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public Promise<Map<Integer, User>> load(List<Integer> ids) {
+				roundTrips.incrementAndGet();
+				Promise<Map<Integer, User>> users = new PromiseImpl<Map<Integer, User>>();
+				dao.findUsersByIds(ids, CallbackAdapter.callback(AsyncUserDao.Callback.class, users));
+				return users;
+			}
+		}, 100, 2, TimeUnit.MILLISECONDS, timer);
+		final List<Promise<User>> users = Collections.synchronizedList(new ArrayList<Promise<User>>());
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int t=0;t<THREADS;t++){
+			final int offset = t * LOOKUPS;
+			Thread worker = new Thread(){
+				public void run() {
+					for (int i=0;i<LOOKUPS;i++)
+						users.add(loader.load(offset + i));
+				};
+			};
+			worker.start();
+			workers.add(worker);
+		}
+		for (Thread worker:workers)
+			worker.join();
+		for (Promise<User> user:users){
+			assertTrue(user.waitForResolution(5, TimeUnit.SECONDS));
+			assertNotNull(user.get());
+		}
+		System.out.println(THREADS * LOOKUPS + " lookups in " + roundTrips.get() + " round trips");
+		assertTrue(roundTrips.get() * 10 <= THREADS * LOOKUPS);
+	}
+}
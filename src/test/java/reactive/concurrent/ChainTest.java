@@ -0,0 +1,90 @@
+package reactive.concurrent;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import reactive.FunctionPointer;
+import reactive.FunctionPointerImpl;
+import reactive.FunctionPointers;
+import reactive.Promise;
+import reactive.PromiseImpl;
+
+/**
+ * Measures how fast chains of {@link FunctionPointer}s complete once their head
+ * resolves, with and without trampolined resolution, and with pointers built
+ * by {@link FunctionPointers}.
+ * 
+ * @author george georgovassilis
+ *
+ */
+public class ChainTest {
+
+	final int LINKS = 300;
+	final int ROUNDS = 500;
+
+	protected FunctionPointer<Integer> increment(Promise<Integer> number) {
+		FunctionPointerImpl<Integer> fp = new FunctionPointerImpl<Integer>(
+				this, number);
+		if (number.isAvailable()) {
+			fp.set(number.get() + 1);
+		}
+		return fp;
+	}
+
+	/**
+	 * Lives in its own class because methods with the same signature as
+	 * {@link ChainTest#increment(Promise)} would make FunctionPointerImpl
+	 * look at the stack on every construction
+	 */
+	static class Lambdas {
+
+		protected FunctionPointer<Integer> increment(Promise<Integer> number) {
+			FunctionPointer<Integer> fp = FunctionPointers.of(this::increment,
+					number);
+			if (number.isAvailable()) {
+				fp.set(number.get() + 1);
+			}
+			return fp;
+		}
+	}
+
+	final Lambdas lambdas = new Lambdas();
+
+	protected long resolveChains(boolean lambdas) {
+		long duration = 0;
+		for (int round = 0; round < ROUNDS; round++) {
+			Promise<Integer> first = new PromiseImpl<Integer>();
+			Promise<Integer> last = first;
+			for (int i = 0; i < LINKS; i++)
+				last = last.invokeWhenAvailable(lambdas ? this.lambdas
+						.increment(last) : increment(last));
+			duration -= System.nanoTime();
+			first.set(0);
+			duration += System.nanoTime();
+			assertEquals(LINKS, last.get().intValue());
+		}
+		return duration;
+	}
+
+	protected void measure(boolean trampolining, boolean lambdas) {
+		boolean previous = PromiseImpl.isTrampolining();
+		PromiseImpl.setTrampolining(trampolining);
+		try {
+			resolveChains(lambdas);
+			long duration = resolveChains(lambdas);
+			System.out.println((trampolining ? "trampolined" : "nested")
+					+ (lambdas ? ", FunctionPointers" : "") + ": "
+					+ (LINKS * ROUNDS * 1000000000L / duration) + " links/sec");
+		} finally {
+			PromiseImpl.setTrampolining(previous);
+		}
+	}
+
+	@Test
+	public void chainTest() {
+		measure(false, false);
+		measure(true, false);
+		measure(true, true);
+	}
+}
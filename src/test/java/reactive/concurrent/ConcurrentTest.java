@@ -1,14 +1,9 @@
 package reactive.concurrent;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -21,24 +16,43 @@ import reactive.PromiseImpl;
 import reactive.model.User;
 import static org.junit.Assert.*;
 
+/**
+ * Looks up users and their status through {@link AsyncUserDao} from several
+ * threads with a {@link LoadHarness} and reports throughput and latency
+ * percentiles. The load is configured with system properties:
+ * 
+ * <ul>
+ * <li>loadtest.threads: threads sending requests, default 4</li>
+ * <li>loadtest.daoThreads: threads of the dao's pool, default as many as
+ * loadtest.threads</li>
+ * <li>loadtest.rate: requests per second, default 0 which sends them back to
+ * back</li>
+ * <li>loadtest.latency: mean dao latency in microseconds, exponentially
+ * distributed, default 0 which only yields</li>
+ * <li>loadtest.warmup and loadtest.duration: seconds, default 2 and 20</li>
+ * </ul>
+ * 
+ * @author george georgovassilis
+ *
+ */
 public class ConcurrentTest {
 
-	final int THREADS = 4;
-	final int DURATION_SEC = 20;
-	final int TERMINATE = -1;
+	final int THREADS = Integer.getInteger("loadtest.threads", 4);
+	final int DAO_THREADS = Integer.getInteger("loadtest.daoThreads", THREADS);
+	final long RATE = Long.getLong("loadtest.rate", 0);
+	final long LATENCY_MICROS = Long.getLong("loadtest.latency", 0);
+	final int WARMUP_SEC = Integer.getInteger("loadtest.warmup", 2);
+	final int DURATION_SEC = Integer.getInteger("loadtest.duration", 20);
 
 	AsyncUserDao userDao;
-	AtomicInteger userIdCounter;
-	BlockingQueue<Integer> queue;
-	List<Thread> workers;
 	Map<Integer, Integer> activeUsers;
 
 	@Before
 	public void setup() {
-		userDao = new AsyncUserDao(new UserDao(), THREADS);
-		userIdCounter = new AtomicInteger(1);
-		queue = new ArrayBlockingQueue<Integer>(1000);
-		workers = new ArrayList<Thread>();
+		LatencyDistribution latency = LATENCY_MICROS > 0 ? LatencyDistribution
+				.exponential(LATENCY_MICROS, TimeUnit.MICROSECONDS)
+				: LatencyDistribution.none();
+		userDao = new AsyncUserDao(new UserDao(latency), DAO_THREADS);
 		activeUsers = Collections.synchronizedMap(new HashMap<Integer, Integer>());
 	}
 
@@ -53,25 +67,6 @@ public class ConcurrentTest {
 		return status;
 	}
 
-	private int getUserId() {
-		return userIdCounter.incrementAndGet();
-	}
-
-	private int getNextUserIdFromQueue() {
-		try {
-			Integer id =  queue.take();
-			if (id.intValue() == TERMINATE)
-				return id;
-			Integer seen = activeUsers.get(id);
-			if (seen!=null)
-				throw new RuntimeException("user "+id+" was seen "+seen+" times");
-			activeUsers.put(id,0);
-			return id;
-		} catch (InterruptedException e) {
-			throw new RuntimeException(e);
-		}
-	}
-	
 	protected FunctionPointer<Void> resolveTest(Promise<User> user, Promise<Boolean> status, Integer userId){
 		FunctionPointer<Void> fp = new FunctionPointerImpl<Void>(this, user, status, userId);
 		if (user.isAvailable() && status.isAvailable()){
@@ -91,43 +86,28 @@ public class ConcurrentTest {
 
 	@Test
 	public void concurrentTest() throws Exception{
-		long start = -System.currentTimeMillis();
-		final AtomicLong count = new AtomicLong();
-		long timestamp = -System.currentTimeMillis();
-		for (int i = 0; i < THREADS; i++) {
-			Thread worker = new Thread() {
-				@Override
-				public void run() {
-					while (true) {
-						final int userId = getNextUserIdFromQueue();
-						if (userId == TERMINATE)
-							return;
-
-						final Promise<User> user = new PromiseImpl<User>("worker user");
-						userDao.findUserById(userId, CallbackAdapter.callback(
-								AsyncUserDao.Callback.class, user));
-						final Promise<Boolean> status = user
-								.invokeWhenAvailable(getStatus(user));
-						Promise<Void> done = status.invokeWhenAvailable(resolveTest(user, status, userId));
-						done.waitForResolution();
-						count.incrementAndGet();
-					}
-				}
-			};
-			worker.start();
-			workers.add(worker);
-		}
+		LoadHarness harness = new LoadHarness(THREADS, RATE, WARMUP_SEC,
+				DURATION_SEC, TimeUnit.SECONDS);
+		LoadHarness.Report report = harness.run(new LoadHarness.Request() {
 
-		while (start + System.currentTimeMillis() < DURATION_SEC * 1000){
-			int userId = getUserId();
-			queue.put(userId);
-		}
-		System.err.println("Terminating");
-		for (int i=0;i<workers.size();i++)
-			queue.put(TERMINATE);
-		for (Thread t:workers)
-			t.join();
-		timestamp+=System.currentTimeMillis();
-		System.out.println(count.get()/(timestamp/1000)+" runs/sec");
+			@Override
+			public Promise<?> send(long sequence) {
+				int userId = (int) sequence + 1;
+				Integer seen = activeUsers.put(userId, 0);
+				if (seen != null)
+					throw new RuntimeException("user " + userId + " was seen "
+							+ seen + " times");
+				Promise<User> user = new PromiseImpl<User>("worker user");
+				userDao.findUserById(userId, CallbackAdapter.callback(
+						AsyncUserDao.Callback.class, user));
+				Promise<Boolean> status = user
+						.invokeWhenAvailable(getStatus(user));
+				return status.invokeWhenAvailable(resolveTest(user, status,
+						userId));
+			}
+		});
+		System.out.println(THREADS + " threads, rate " + RATE + "/sec: " + report);
+		assertEquals(0, report.getFailures());
+		assertTrue(report.getRequests() > 0);
 	}
 }
@@ -0,0 +1,69 @@
+package reactive.concurrent;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long a simulated backend call takes. Injected into {@link UserDao} to
+ * put the promise machinery under realistic load.
+ *
+ * @author george georgovassilis
+ *
+ */
+public interface LatencyDistribution {
+
+	/**
+	 * Returns the duration of the next call in nanoseconds, 0 for calls which
+	 * only yield
+	 *
+	 * @return
+	 */
+	long nextDelay();
+
+	/**
+	 * Calls which don't take any time
+	 */
+	static LatencyDistribution none() {
+		return constant(0, TimeUnit.NANOSECONDS);
+	}
+
+	static LatencyDistribution constant(long delay, TimeUnit unit) {
+		final long nanos = unit.toNanos(delay);
+		return new LatencyDistribution() {
+
+			@Override
+			public long nextDelay() {
+				return nanos;
+			}
+		};
+	}
+
+	static LatencyDistribution uniform(long min, long max, TimeUnit unit) {
+		final long from = unit.toNanos(min);
+		final long to = unit.toNanos(max);
+		return new LatencyDistribution() {
+
+			@Override
+			public long nextDelay() {
+				return from == to ? from : ThreadLocalRandom.current()
+						.nextLong(from, to);
+			}
+		};
+	}
+
+	/**
+	 * Exponentially distributed delays with the given mean, which gives the
+	 * long tail typical of remote calls
+	 */
+	static LatencyDistribution exponential(long mean, TimeUnit unit) {
+		final double nanos = unit.toNanos(mean);
+		return new LatencyDistribution() {
+
+			@Override
+			public long nextDelay() {
+				return (long) (-nanos * Math.log(1 - ThreadLocalRandom.current()
+						.nextDouble()));
+			}
+		};
+	}
+}
@@ -0,0 +1,146 @@
+package reactive.concurrent;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records latencies in nanoseconds with a bounded relative error, in the
+ * manner of HdrHistogram: values below 2^PRECISION_BITS get a bucket each,
+ * larger values share buckets whose width doubles with every power of two, so
+ * a recorded value is at most 1/2^(PRECISION_BITS-1) off. Recording is O(1)
+ * and doesn't allocate.
+ *
+ * Instances aren't thread safe; let each thread record into its own histogram
+ * and {@link #add(LatencyHistogram)} them up afterwards.
+ *
+ * @author george georgovassilis
+ *
+ */
+public class LatencyHistogram {
+
+	final static int PRECISION_BITS = 10;
+	final static int SUB_BUCKETS = 1 << PRECISION_BITS;
+	final static int HALF = SUB_BUCKETS / 2;
+
+	private final long[] counts = new long[SUB_BUCKETS + (64 - PRECISION_BITS)
+			* HALF];
+	private long count;
+	private long sum;
+	private long max;
+
+	static int indexOf(long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		int shift = 64 - Long.numberOfLeadingZeros(value) - PRECISION_BITS;
+		int top = (int) (value >>> shift);
+		return SUB_BUCKETS + (shift - 1) * HALF + top - HALF;
+	}
+
+	/**
+	 * Returns the highest value which falls into the bucket at index
+	 */
+	static long highestValueAt(int index) {
+		if (index < SUB_BUCKETS)
+			return index;
+		int shift = (index - SUB_BUCKETS) / HALF + 1;
+		long top = (index - SUB_BUCKETS) % HALF + HALF;
+		return ((top + 1) << shift) - 1;
+	}
+
+	/**
+	 * Records a latency, negative values are recorded as 0
+	 *
+	 * @param nanos
+	 */
+	public void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+		counts[indexOf(nanos)]++;
+		count++;
+		sum += nanos;
+		if (nanos > max)
+			max = nanos;
+	}
+
+	/**
+	 * Adds the values recorded by other to this histogram
+	 *
+	 * @param other
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < counts.length; i++)
+			counts[i] += other.counts[i];
+		count += other.count;
+		sum += other.sum;
+		max = Math.max(max, other.max);
+	}
+
+	public void reset() {
+		Arrays.fill(counts, 0);
+		count = sum = max = 0;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Largest recorded value, exact
+	 *
+	 * @return
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	public double getMean() {
+		return count == 0 ? 0 : (double) sum / count;
+	}
+
+	/**
+	 * Returns the value which percentile percent of the recorded values don't
+	 * exceed, as the upper bound of its bucket but never more than
+	 * {@link #getMax()}
+	 *
+	 * @param percentile
+	 *            between 0 and 100
+	 * @return
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (count == 0)
+			return 0;
+		long rank = (long) Math.ceil(Math.min(percentile, 100) / 100 * count);
+		if (rank < 1)
+			rank = 1;
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				return Math.min(highestValueAt(i), max);
+		}
+		return max;
+	}
+
+	/**
+	 * Summary with p50, p99, p99.9 and max in the given unit
+	 *
+	 * @param unit
+	 * @return
+	 */
+	public String toString(TimeUnit unit) {
+		return "p50=" + format(getValueAtPercentile(50), unit) + " p99="
+				+ format(getValueAtPercentile(99), unit) + " p99.9="
+				+ format(getValueAtPercentile(99.9), unit) + " max="
+				+ format(max, unit) + " " + unit.toString().toLowerCase();
+	}
+
+	private static String format(long nanos, TimeUnit unit) {
+		return String.format("%.1f",
+				(double) nanos / TimeUnit.NANOSECONDS.convert(1, unit));
+	}
+
+	@Override
+	public String toString() {
+		return count + " values, " + toString(TimeUnit.MICROSECONDS);
+	}
+}
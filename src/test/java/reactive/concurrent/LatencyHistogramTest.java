@@ -0,0 +1,69 @@
+package reactive.concurrent;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Verifying {@link LatencyHistogram} functionality
+ * @author george georgovassilis
+ *
+ */
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void test_small_values_are_exact(){
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i=1;i<=100;i++)
+			histogram.record(i);
+		assertEquals(100, histogram.getCount());
+		assertEquals(50, histogram.getValueAtPercentile(50));
+		assertEquals(99, histogram.getValueAtPercentile(99));
+		assertEquals(100, histogram.getValueAtPercentile(100));
+		assertEquals(100, histogram.getMax());
+		assertEquals(50.5, histogram.getMean(), 0.001);
+	}
+
+	@Test
+	public void test_large_values_have_bounded_error(){
+		for (long value = 1; value > 0 && value < Long.MAX_VALUE / 2; value = value * 3 + 7){
+			int index = LatencyHistogram.indexOf(value);
+			long highest = LatencyHistogram.highestValueAt(index);
+			assertTrue(highest >= value);
+			assertTrue((highest - value) * LatencyHistogram.HALF <= value);
+			assertEquals(index, LatencyHistogram.indexOf(highest));
+		}
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(Long.MAX_VALUE);
+		assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100));
+	}
+
+	@Test
+	public void test_percentiles_of_a_long_tail(){
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i=0;i<990;i++)
+			histogram.record(1000);
+		for (int i=0;i<10;i++)
+			histogram.record(1000000);
+		assertEquals(1000, histogram.getValueAtPercentile(99), 1);
+		assertEquals(1000000, histogram.getValueAtPercentile(99.9), 1000000 / LatencyHistogram.HALF);
+		assertEquals(1000000, histogram.getMax());
+	}
+
+	@Test
+	public void test_histograms_add_up(){
+		LatencyHistogram a = new LatencyHistogram();
+		LatencyHistogram b = new LatencyHistogram();
+		a.record(10);
+		b.record(20);
+		b.record(5000);
+		a.add(b);
+		assertEquals(3, a.getCount());
+		assertEquals(5000, a.getMax());
+		assertEquals(20, a.getValueAtPercentile(50));
+		a.reset();
+		assertEquals(0, a.getCount());
+		assertEquals(0, a.getValueAtPercentile(50));
+	}
+}
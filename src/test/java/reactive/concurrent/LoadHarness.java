@@ -0,0 +1,247 @@
+package reactive.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import reactive.Callback;
+import reactive.Promise;
+import reactive.PromiseImpl;
+
+/**
+ * Runs requests from a number of threads for a while and records how long
+ * they take until their promises resolve.
+ *
+ * With a request rate the load is open-loop: request n is due at start +
+ * n/rate regardless of how long earlier requests took, threads send it at that
+ * time without waiting for the requests they sent before, and its latency is
+ * measured from that time on rather than from when a thread got around to
+ * sending it. Latencies are recorded by a callback on the promise, on
+ * whichever thread resolves it. A stalled system therefore shows up in the percentiles with all
+ * the requests which should have been sent meanwhile, instead of hiding behind
+ * the few threads it stalled (coordinated omission). Without a rate every
+ * thread sends its next request as soon as the previous one resolved, which
+ * measures peak throughput but only service time.
+ *
+ * Requests due during the warm-up are run but not recorded.
+ *
+ * @author george georgovassilis
+ *
+ */
+public class LoadHarness {
+
+	/**
+	 * A request under test
+	 */
+	public interface Request {
+
+		/**
+		 * Sends request number sequence, starting at 0, and returns a promise
+		 * which resolves once it is done
+		 */
+		Promise<?> send(long sequence);
+	}
+
+	/**
+	 * Outcome of a run
+	 */
+	public static class Report {
+		final LatencyHistogram histogram;
+		final long requests;
+		final long failures;
+		final long durationNanos;
+
+		Report(LatencyHistogram histogram, long failures, long durationNanos) {
+			this.histogram = histogram;
+			this.requests = histogram.getCount();
+			this.failures = failures;
+			this.durationNanos = durationNanos;
+		}
+
+		public LatencyHistogram getHistogram() {
+			return histogram;
+		}
+
+		/**
+		 * Requests completed after the warm-up, including failed ones
+		 */
+		public long getRequests() {
+			return requests;
+		}
+
+		public long getFailures() {
+			return failures;
+		}
+
+		public double getThroughput() {
+			return requests * 1e9 / durationNanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d requests, %d failed, %.0f/sec, %s",
+					requests, failures, getThroughput(),
+					histogram.toString(TimeUnit.MICROSECONDS));
+		}
+	}
+
+	/**
+	 * Number of histograms callbacks record into, picked by thread
+	 */
+	private final static int STRIPES = 16;
+
+	/**
+	 * Records the latency of one request once its promise resolves
+	 */
+	private final class Recorder implements Callback<Object> {
+		final long due;
+		final boolean measured;
+
+		Recorder(long due, boolean measured) {
+			this.due = due;
+			this.measured = measured;
+		}
+
+		@Override
+		public void set(Object value) {
+			done(due, measured, false);
+		}
+
+		@Override
+		public void fail(Exception error) {
+			done(due, measured, true);
+		}
+	}
+
+	private final int threads;
+	private final long interval;
+	private final long warmup;
+	private final long duration;
+
+	/**
+	 * Creates a harness
+	 *
+	 * @param threads
+	 *            number of threads sending requests
+	 * @param requestsPerSecond
+	 *            rate at which requests are due, 0 sends them back to back
+	 * @param warmup
+	 *            how long to run before recording
+	 * @param duration
+	 *            how long to record
+	 * @param unit
+	 *            unit of warmup and duration
+	 */
+	public LoadHarness(int threads, double requestsPerSecond, long warmup,
+			long duration, TimeUnit unit) {
+		if (threads <= 0)
+			throw new IllegalArgumentException("Need at least one thread");
+		if (requestsPerSecond < 0)
+			throw new IllegalArgumentException("Rate can't be negative");
+		this.threads = threads;
+		this.interval = requestsPerSecond == 0 ? 0
+				: Math.max(1, (long) (1e9 / requestsPerSecond));
+		this.warmup = unit.toNanos(warmup);
+		this.duration = unit.toNanos(duration);
+	}
+
+	private final Object lock = new Object();
+	private LatencyHistogram[] stripes;
+	private AtomicLong failures;
+	// requests sent whose promises haven't resolved yet
+	private final AtomicLong outstanding = new AtomicLong();
+
+	/**
+	 * Runs request until the warm-up and measurement are over, waits for the
+	 * requests in flight and reports on the ones due after the warm-up
+	 *
+	 * @param request
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public Report run(final Request request) throws InterruptedException {
+		final AtomicLong sequence = new AtomicLong();
+		final long start = System.nanoTime();
+		final long measured = start + warmup;
+		final long end = measured + duration;
+		stripes = new LatencyHistogram[STRIPES];
+		for (int i = 0; i < STRIPES; i++)
+			stripes[i] = new LatencyHistogram();
+		failures = new AtomicLong();
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int i = 0; i < threads; i++) {
+			Thread worker = new Thread("LoadHarness-" + i) {
+				@Override
+				public void run() {
+					for (;;) {
+						long n = sequence.getAndIncrement();
+						long due = interval == 0 ? System.nanoTime() : start
+								+ n * interval;
+						if (due - end >= 0)
+							return;
+						waitUntil(due);
+						send(request, n, due, due - measured >= 0);
+					}
+				}
+			};
+			worker.start();
+			workers.add(worker);
+		}
+		for (Thread worker : workers)
+			worker.join();
+		// wait for the requests still in flight
+		synchronized (lock) {
+			while (outstanding.get() > 0)
+				lock.wait();
+		}
+		LatencyHistogram total = new LatencyHistogram();
+		for (LatencyHistogram histogram : stripes)
+			total.add(histogram);
+		return new Report(total, failures.get(), duration);
+	}
+
+	/**
+	 * Sends a request and records it once its promise resolves. Without a
+	 * rate, waits for that before returning.
+	 */
+	@SuppressWarnings("unchecked")
+	private void send(Request request, long n, long due, boolean measured) {
+		Promise<Object> promise;
+		outstanding.incrementAndGet();
+		Recorder recorder = new Recorder(due, measured);
+		try {
+			promise = (Promise<Object>) request.send(n);
+		} catch (RuntimeException e) {
+			recorder.fail(e);
+			return;
+		}
+		promise.whenAvailable(recorder, PromiseImpl.INLINE);
+		if (interval == 0)
+			promise.waitForResolution();
+	}
+
+	private void done(long due, boolean measured, boolean failed) {
+		long latency = System.nanoTime() - due;
+		if (measured) {
+			LatencyHistogram histogram = stripes[(int) (Thread.currentThread()
+					.getId() % STRIPES)];
+			synchronized (histogram) {
+				histogram.record(latency);
+			}
+			if (failed)
+				failures.incrementAndGet();
+		}
+		if (outstanding.decrementAndGet() == 0)
+			synchronized (lock) {
+				lock.notifyAll();
+			}
+	}
+
+	private static void waitUntil(long due) {
+		long remaining;
+		while ((remaining = due - System.nanoTime()) > 0)
+			LockSupport.parkNanos(remaining);
+	}
+}
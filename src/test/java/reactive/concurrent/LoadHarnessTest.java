@@ -0,0 +1,119 @@
+package reactive.concurrent;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import reactive.Promise;
+import reactive.PromiseImpl;
+
+/**
+ * Verifying {@link LoadHarness} functionality
+ * @author george georgovassilis
+ *
+ */
+
+public class LoadHarnessTest {
+
+	/**
+	 * Resolves right away, except for the first request sent after a delay
+	 * which takes 200ms
+	 */
+	static class StallingRequest implements LoadHarness.Request {
+
+		final long stall;
+		boolean stalled;
+
+		StallingRequest(long delay, TimeUnit unit) {
+			this.stall = System.nanoTime() + unit.toNanos(delay);
+		}
+
+		@Override
+		public Promise<?> send(long sequence) {
+			if (!stalled && System.nanoTime() - stall >= 0) {
+				stalled = true;
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			Promise<Long> promise = new PromiseImpl<Long>();
+			promise.set(sequence);
+			return promise;
+		}
+	}
+
+	@Test
+	public void test_open_loop_counts_requests_delayed_by_a_stall() throws Exception{
+		// 1000 requests/sec from one thread: the stall holds up the 200
+		// requests due after it, which the report must show
+		LoadHarness harness = new LoadHarness(1, 1000, 100, 500, TimeUnit.MILLISECONDS);
+		LoadHarness.Report report = harness.run(new StallingRequest(300, TimeUnit.MILLISECONDS));
+		System.out.println("open loop: " + report);
+		assertTrue(report.getRequests() > 400);
+		assertTrue(report.getHistogram().getValueAtPercentile(90) > TimeUnit.MILLISECONDS.toNanos(10));
+		assertTrue(report.getHistogram().getMax() >= TimeUnit.MILLISECONDS.toNanos(200));
+	}
+
+	@Test
+	public void test_open_loop_doesnt_wait_for_responses() throws Exception{
+		// every response takes 50ms, yet one thread keeps sending 1000
+		// requests/sec and the run waits for the last ones
+		final ScheduledExecutorService backend = Executors.newScheduledThreadPool(2);
+		try {
+			LoadHarness harness = new LoadHarness(1, 1000, 0, 200, TimeUnit.MILLISECONDS);
+			LoadHarness.Report report = harness.run(new LoadHarness.Request() {
+
+				@Override
+				public Promise<?> send(final long sequence) {
+					final Promise<Long> promise = new PromiseImpl<Long>();
+					backend.schedule(new Runnable() {
+
+						@Override
+						public void run() {
+							promise.set(sequence);
+						}
+					}, 50, TimeUnit.MILLISECONDS);
+					return promise;
+				}
+			});
+			assertEquals(200, report.getRequests());
+			assertTrue(report.getHistogram().getValueAtPercentile(50) >= TimeUnit.MILLISECONDS.toNanos(50));
+		} finally {
+			backend.shutdownNow();
+		}
+	}
+
+	@Test
+	public void test_closed_loop_only_sees_the_stall_once() throws Exception{
+		LoadHarness harness = new LoadHarness(1, 0, 100, 500, TimeUnit.MILLISECONDS);
+		LoadHarness.Report report = harness.run(new StallingRequest(300, TimeUnit.MILLISECONDS));
+		System.out.println("closed loop: " + report);
+		assertTrue(report.getHistogram().getValueAtPercentile(99) < TimeUnit.MILLISECONDS.toNanos(10));
+		assertTrue(report.getHistogram().getMax() >= TimeUnit.MILLISECONDS.toNanos(200));
+	}
+
+	@Test
+	public void test_failures_are_counted() throws Exception{
+		LoadHarness harness = new LoadHarness(2, 0, 0, 50, TimeUnit.MILLISECONDS);
+		LoadHarness.Report report = harness.run(new LoadHarness.Request() {
+
+			@Override
+			public Promise<?> send(long sequence) {
+				Promise<Void> promise = new PromiseImpl<Void>();
+				if (sequence % 2 == 0)
+					promise.fail(new Exception());
+				else
+					promise.set(null);
+				return promise;
+			}
+		});
+		assertTrue(report.getFailures() > 0);
+		assertTrue(report.getFailures() < report.getRequests());
+	}
+}
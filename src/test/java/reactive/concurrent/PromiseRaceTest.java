@@ -0,0 +1,231 @@
+package reactive.concurrent;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import reactive.Callback;
+import reactive.Promise;
+import reactive.PromiseImpl;
+import reactive.exceptions.AlreadyResolvedException;
+import reactive.exceptions.PromiseCancelledException;
+
+/**
+ * Lets threads race each other on the same {@link PromiseImpl} and checks
+ * that every callback sees exactly one, consistent outcome
+ *
+ * @author george georgovassilis
+ *
+ */
+public class PromiseRaceTest {
+
+	final int ROUNDS = 2000;
+	final int CALLBACKS = 16;
+
+	final ExecutorService pool = Executors.newFixedThreadPool(2);
+
+	/**
+	 * Counts invocations and remembers what it was invoked with. Yields so
+	 * that the other thread gets to run while callbacks are being invoked,
+	 * even on a single core.
+	 */
+	static class CountingCallback implements Callback<String> {
+
+		final AtomicInteger invocations = new AtomicInteger();
+		volatile String value;
+		volatile Exception error;
+
+		@Override
+		public void set(String value) {
+			this.value = value;
+			invocations.incrementAndGet();
+			Thread.yield();
+		}
+
+		@Override
+		public void fail(Exception error) {
+			this.error = error;
+			invocations.incrementAndGet();
+			Thread.yield();
+		}
+	}
+
+	@After
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+
+	/**
+	 * Runs a and b on two threads which start at the same time as far as
+	 * possible, and rethrows what they threw
+	 */
+	protected void race(final Runnable a, final Runnable b) throws Exception {
+		final AtomicInteger ready = new AtomicInteger();
+		Future<?> first = pool.submit(new Runnable() {
+
+			@Override
+			public void run() {
+				ready.incrementAndGet();
+				while (ready.get() < 2)
+					Thread.yield();
+				a.run();
+			}
+		});
+		Future<?> second = pool.submit(new Runnable() {
+
+			@Override
+			public void run() {
+				ready.incrementAndGet();
+				while (ready.get() < 2)
+					Thread.yield();
+				b.run();
+			}
+		});
+		first.get();
+		second.get();
+	}
+
+	protected List<CountingCallback> register(Promise<String> p, int count) {
+		List<CountingCallback> callbacks = new ArrayList<CountingCallback>();
+		for (int i = 0; i < count; i++) {
+			CountingCallback callback = new CountingCallback();
+			p.whenAvailable(callback);
+			callbacks.add(callback);
+		}
+		return callbacks;
+	}
+
+	@Test
+	public void test_set_races_fail() throws Exception {
+		final Exception error = new Exception();
+		for (int round = 0; round < ROUNDS; round++) {
+			final Promise<String> p = new PromiseImpl<String>();
+			List<CountingCallback> callbacks = register(p, CALLBACKS);
+			final AtomicInteger winners = new AtomicInteger();
+			race(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						p.set("value");
+						winners.incrementAndGet();
+					} catch (AlreadyResolvedException e) {
+					}
+				}
+			}, new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						p.fail(error);
+						winners.incrementAndGet();
+					} catch (AlreadyResolvedException e) {
+					}
+				}
+			});
+			assertEquals(1, winners.get());
+			boolean failed = p.getError() != null;
+			for (CountingCallback callback : callbacks) {
+				assertEquals(1, callback.invocations.get());
+				if (failed)
+					assertSame(error, callback.error);
+				else
+					assertEquals("value", callback.value);
+			}
+		}
+	}
+
+	@Test
+	public void test_set_races_cancel() throws Exception {
+		for (int round = 0; round < ROUNDS; round++) {
+			final Promise<String> p = new PromiseImpl<String>();
+			List<CountingCallback> callbacks = register(p, CALLBACKS);
+			final AtomicBoolean cancelled = new AtomicBoolean();
+			race(new Runnable() {
+
+				@Override
+				public void run() {
+					p.set("value");
+				}
+			}, new Runnable() {
+
+				@Override
+				public void run() {
+					cancelled.set(p.cancel());
+				}
+			});
+			assertEquals(cancelled.get(), p.isCancelled());
+			for (CountingCallback callback : callbacks) {
+				assertEquals(1, callback.invocations.get());
+				if (cancelled.get())
+					assertTrue(callback.error instanceof PromiseCancelledException);
+				else
+					assertEquals("value", callback.value);
+			}
+		}
+	}
+
+	@Test
+	public void test_whenAvailable_races_set() throws Exception {
+		for (int round = 0; round < ROUNDS; round++) {
+			final Promise<String> p = new PromiseImpl<String>();
+			final List<CountingCallback> callbacks = new ArrayList<CountingCallback>();
+			race(new Runnable() {
+
+				@Override
+				public void run() {
+					callbacks.addAll(register(p, CALLBACKS));
+				}
+			}, new Runnable() {
+
+				@Override
+				public void run() {
+					p.set("value");
+				}
+			});
+			assertEquals(CALLBACKS, callbacks.size());
+			for (CountingCallback callback : callbacks) {
+				assertEquals(1, callback.invocations.get());
+				assertEquals("value", callback.value);
+			}
+		}
+	}
+
+	@Test
+	public void test_removeCallback_races_set() throws Exception {
+		for (int round = 0; round < ROUNDS; round++) {
+			final Promise<String> p = new PromiseImpl<String>();
+			final List<CountingCallback> callbacks = register(p, CALLBACKS);
+			final boolean[] removed = new boolean[CALLBACKS];
+			race(new Runnable() {
+
+				@Override
+				public void run() {
+					// removes every other callback, from the middle of the
+					// stack as well as from its ends
+					for (int i = 0; i < CALLBACKS; i += 2)
+						removed[i] = p.removeCallback(callbacks.get(i));
+				}
+			}, new Runnable() {
+
+				@Override
+				public void run() {
+					p.set("value");
+				}
+			});
+			for (int i = 0; i < CALLBACKS; i++)
+				assertEquals("callback " + i + " in round " + round,
+						removed[i] ? 0 : 1, callbacks.get(i).invocations.get());
+		}
+	}
+
+}
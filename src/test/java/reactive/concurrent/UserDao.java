@@ -1,24 +1,36 @@
 package reactive.concurrent;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
 
 import reactive.model.User;
 
 public class UserDao {
 
-	AtomicInteger pause = new AtomicInteger(1);
-	
+	private final LatencyDistribution latency;
+
+	/**
+	 * Creates a dao whose calls take as long as latency says
+	 */
+	public UserDao(LatencyDistribution latency) {
+		this.latency = latency;
+	}
+
+	public UserDao() {
+		this(LatencyDistribution.none());
+	}
+
 	void sleep() {
-//		int p = pause.incrementAndGet();
-//		if (p>10)
-//			pause.set(1);
-//		try {
-//			Thread.sleep(p);
-//		} catch (InterruptedException e) {
-//			// TODO Auto-generated catch block
-//			e.printStackTrace();
-//		}
-		Thread.yield();
+		long delay = latency.nextDelay();
+		if (delay <= 0) {
+			Thread.yield();
+			return;
+		}
+		long end = System.nanoTime() + delay;
+		while ((delay = end - System.nanoTime()) > 0)
+			LockSupport.parkNanos(delay);
 	}
 
 	public User findUserById(int id) {
@@ -29,6 +41,18 @@ public class UserDao {
 		return user;
 	}
 
+	public Map<Integer, User> findUsersByIds(List<Integer> ids) {
+		sleep();
+		Map<Integer, User> users = new HashMap<Integer, User>();
+		for (Integer id : ids) {
+			User user = new User();
+			user.customerId = "" + id;
+			user.fullName = "Esteemed customer " + id;
+			users.put(id, user);
+		}
+		return users;
+	}
+
 	public boolean getStatusForUser(String userName) {
 		sleep();
 		String[] parts = userName.split(" ");
@@ -1,5 +1,6 @@
 package reactive.legacy;
 
+import reactive.annotations.GenerateAdapter;
 import reactive.model.User;
 
 /**
@@ -10,6 +11,7 @@ import reactive.model.User;
  */
 public interface UserService {
 
+	@GenerateAdapter
 	interface Callback<T>{
 		
 		void onSuccess(T value);